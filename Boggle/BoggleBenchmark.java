@@ -0,0 +1,196 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Random;
+
+// Benchmark of BoggleSolver over seeded dictionaries and boards: load time and heap of
+// the dictionary (as a trie and minimized, built and memory-mapped), boards per second
+// for several sizes, bytes allocated per solve, and scoreOf lookups per second. The
+// boards are solved with the memory-mapped minimized dictionary.
+// Each measure is run WARMUP times, then the best of ITERATIONS runs is reported.
+public class BoggleBenchmark {
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final long SEED = 42;
+    private static final int BOARDS = 2000;
+    private static final int LOOKUPS = 1000000;
+    private static final int[][] SHAPES = { { 4, 4 }, { 5, 5 }, { 10, 10 } };
+    // letters weighted by their frequency in English, as on the real cubes
+    private static final String LETTERS = "EEEEEEEEEEEETTTTTTTTTAAAAAAAAOOOOOOOIIIIIIINNNNNNNSSSSSS"
+                                          +"HHHHHHRRRRRRDDDDLLLLCCCUUUMMWWFFGGYYPPBVKJXQZ";
+    private static final String[] SYLLABLES = {
+        "RE", "IN", "ER", "AT", "ON", "EN", "ES", "TI", "TE", "OR", "ST", "AN", "AR", "AL",
+        "DE", "CO", "ING", "ION", "ATION", "ED", "LY", "MENT", "ABLE", "PRE", "UN", "QU", "S"
+    };
+
+    // n distinct dictionary words made of random syllables, from a fixed seed
+    static String[] dictionary(int n) {
+        Random random = new Random(SEED);
+        HashSet<String> words = new HashSet<String>();
+        while (words.size() < n) {
+            StringBuilder sb = new StringBuilder();
+            int syllables = 1+random.nextInt(5);
+            for (int s = 0; s < syllables; s++) {
+                sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                if (random.nextInt(3) == 0) {
+                    sb.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+                }
+            }
+            words.add(sb.toString());
+        }
+        return words.toArray(new String[n]);
+    }
+
+    // count random boards of the given shape, from a fixed seed
+    static BoggleBoard[] boards(int rows, int cols, int count) {
+        Random random = new Random(SEED);
+        BoggleBoard[] boards = new BoggleBoard[count];
+        for (int b = 0; b < count; b++) {
+            char[][] a = new char[rows][cols];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    a[i][j] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+                }
+            }
+            boards[b] = new BoggleBoard(a);
+        }
+        return boards;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory()-runtime.freeMemory();
+    }
+
+    // bytes allocated so far by the live threads, or -1 if the JVM cannot tell: large boards
+    // are solved by the threads of the common pool, whose allocations count as well
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            long total = 0;
+            for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+            return total;
+        }
+        return -1;
+    }
+
+    // load time and heap of the dictionary, as a trie then minimized, built in memory
+    // then memory-mapped from the file compiled from the same solver
+    private static BoggleSolver load(String name, String[] words) throws IOException {
+        BoggleSolver solver = null;
+        BoggleSolver[] built = new BoggleSolver[2];
+        String[] modes = { "trie", "dawg", "trie-file", "dawg-file" };
+        for (int mode = 0; mode < modes.length; mode++) {
+            File compiled = null;
+            if (mode >= 2) {
+                compiled = File.createTempFile("boggle", ".bin");
+                compiled.deleteOnExit();
+                built[mode-2].compile(compiled.getPath());
+            }
+            long best = Long.MAX_VALUE, heap = 0;
+            for (int it = 0; it < WARMUP+ITERATIONS; it++) {
+                solver = null;
+                long before = usedHeap();
+                long t0 = System.nanoTime();
+                if (mode >= 2) {
+                    solver = new BoggleSolver(compiled.getPath());
+                } else {
+                    solver = new BoggleSolver(words, mode == 1);
+                }
+                long t1 = System.nanoTime();
+                if (it >= WARMUP) {
+                    best = Math.min(best, t1-t0);
+                    heap = usedHeap()-before;
+                }
+            }
+            StdOut.printf("%-8s %9d words %-9s %10.1f ms %10.1f MB heap%n",
+                          name, words.length, modes[mode], best/1e6, heap/1e6);
+            if (mode < 2) {
+                built[mode] = solver;
+            }
+        }
+        return solver;
+    }
+
+    // boards per second and bytes allocated per board, listing the words or scoring only
+    private static void solve(BoggleSolver solver, int rows, int cols) {
+        BoggleBoard[] boards = boards(rows, cols, rows*cols > 36 ? BOARDS/10 : BOARDS);
+        for (boolean words : new boolean[] { true, false }) {
+            long best = Long.MAX_VALUE, bytes = 0;
+            int total = 0;
+            for (int it = 0; it < WARMUP+ITERATIONS; it++) {
+                long a0 = allocated(), t0 = System.nanoTime();
+                total = 0;
+                for (BoggleBoard board : boards) {
+                    if (words) {
+                        for (String word : solver.getAllValidWords(board)) {
+                            total++;
+                        }
+                    } else {
+                        total += solver.scoreBoard(board);
+                    }
+                }
+                long t1 = System.nanoTime(), a1 = allocated();
+                if (it >= WARMUP) {
+                    best = Math.min(best, t1-t0);
+                    bytes = a0 < 0 ? -1 : (a1-a0)/boards.length;
+                }
+            }
+            StdOut.printf("%2dx%-2d %-6s %12.0f boards/s %10d B/board %10.1f %s/board%n",
+                          rows, cols, words ? "words" : "score", boards.length/(best/1e9), bytes,
+                          (double) total/boards.length, words ? "words" : "points");
+        }
+    }
+
+    // scoreOf lookups per second, half of them of dictionary words
+    private static void lookups(BoggleSolver solver, String[] dictionary) {
+        Random random = new Random(SEED);
+        String[] queries = new String[1024];
+        for (int q = 0; q < queries.length; q++) {
+            String word = dictionary[random.nextInt(dictionary.length)];
+            queries[q] = q % 2 == 0 ? word : word+LETTERS.charAt(random.nextInt(LETTERS.length()));
+        }
+        long best = Long.MAX_VALUE;
+        int score = 0;
+        for (int it = 0; it < WARMUP+ITERATIONS; it++) {
+            long t0 = System.nanoTime();
+            for (int k = 0; k < LOOKUPS; k++) {
+                score += solver.scoreOf(queries[k & (queries.length-1)]);
+            }
+            long t1 = System.nanoTime();
+            if (it >= WARMUP) {
+                best = Math.min(best, t1-t0);
+            }
+        }
+        StdOut.printf("scoreOf %12.0f lookups/s (checksum %d)%n", LOOKUPS/(best/1e9), score);
+    }
+
+    // args: dictionary files (default: generated dictionaries of 10,000 and 200,000 words)
+    public static void main(String[] args) throws IOException {
+        String[] names = { "small", "large" };
+        String[][] dictionaries = { dictionary(10000), dictionary(200000) };
+        if (args.length > 0) {
+            names = args;
+            dictionaries = new String[args.length][];
+            for (int d = 0; d < args.length; d++) {
+                dictionaries[d] = new In(args[d]).readAllStrings();
+            }
+        }
+        for (int d = 0; d < dictionaries.length; d++) {
+            BoggleSolver solver = load(names[d], dictionaries[d]);
+            for (int[] shape : SHAPES) {
+                solve(solver, shape[0], shape[1]);
+            }
+            lookups(solver, dictionaries[d]);
+        }
+    }
+}
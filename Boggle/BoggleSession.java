@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Incremental solve of a board whose cubes change one at a time, as in a search
+// that rerolls one die per step. The session keeps the number of paths spelling each
+// word of the board: after setLetter, the paths through the changed cube are counted
+// out with the old letter and counted in with the new one, and a word appears or
+// disappears when its number of paths leaves or reaches zero. Only the paths that can
+// still reach the changed cube are explored.
+// A session is used by one thread at a time.
+public class BoggleSession {
+    private final CompiledTrie trie;
+    private final BoggleSolver.Graph graph;
+    private final int rows, cols;
+    private final char[] letters;
+    private final int[] onBoard = new int[26]; // number of cubes of each letter
+    private final boolean[] mask;
+    private char[] prefix = new char[32];
+    // number of paths of each word (by rank), and the words with at least one
+    private final int[] paths;
+    private final HashMap<Integer, String> words = new HashMap<Integer, String>();
+    private int score;
+    // words added and removed by the last change
+    private ArrayList<String> added = new ArrayList<String>();
+    private HashMap<Integer, String> removed = new HashMap<Integer, String>();
+    // cube whose paths are counted, or -1 for all the paths
+    private int target;
+
+    BoggleSession(BoggleSolver solver, BoggleBoard board) {
+        // check arguments
+        if (board == null) {
+            throw new NullPointerException("board should not be null.");
+        }
+        this.trie = solver.trie();
+        this.graph = solver.graphOf(board);
+        this.rows = board.rows();
+        this.cols = board.cols();
+        this.letters = new char[rows*cols];
+        this.mask = new boolean[rows*cols];
+        this.paths = new int[this.trie.words()];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                this.letters[i*cols+j] = board.getLetter(i, j);
+                this.onBoard[board.getLetter(i, j)-'A']++;
+            }
+        }
+        this.target = -1;
+        count(1);
+        this.added.clear();
+    }
+
+    // total score of the words of the board
+    public int score() {
+        return this.score;
+    }
+
+    // words of the board
+    public Iterable<String> words() {
+        return new ArrayList<String>(this.words.values());
+    }
+
+    // words that the last call to setLetter added to the board
+    public Iterable<String> added() {
+        return this.added;
+    }
+
+    // words that the last call to setLetter removed from the board
+    public Iterable<String> removed() {
+        return this.removed.values();
+    }
+
+    // set the cube (i, j) to the letter c; returns the change of score
+    public int setLetter(int i, int j, char c) {
+        // check arguments
+        if (i < 0 || i >= rows) {
+            throw new IndexOutOfBoundsException("i should be between 0 and "+(rows-1)+" (i="+i+").");
+        } else if (j < 0 || j >= cols) {
+            throw new IndexOutOfBoundsException("j should be between 0 and "+(cols-1)+" (j="+j+").");
+        } else if (c < 'A' || c > 'Z') {
+            throw new IllegalArgumentException("c should be an uppercase letter (c="+c+").");
+        }
+        int before = this.score;
+        this.added = new ArrayList<String>();
+        this.removed = new HashMap<Integer, String>();
+        this.target = i*cols+j;
+        if (this.letters[this.target] != c) {
+            count(-1);
+            this.onBoard[this.letters[this.target]-'A']--;
+            this.letters[this.target] = c;
+            this.onBoard[c-'A']++;
+            count(1);
+        }
+        return this.score-before;
+    }
+
+    // add sign to the number of paths of the words through the target cube
+    private void count(int sign) {
+        int letters = 0;
+        for (int c = 0; c < 26; c++) {
+            if (this.onBoard[c] > 0) {
+                letters |= 1 << c;
+            }
+        }
+        for (int k = 0; k < rows*cols; k++) {
+            count(sign, letters, k, Trie.ROOT, 0, 0, false);
+        }
+    }
+
+    // through tells if the path before the cube k goes through the target cube
+    private void count(int sign, int letters, int k, int n, int depth, int rank, boolean through) {
+        char c = this.letters[k];
+        int edge = this.trie.edge(n, c);
+        if (edge < 0) {
+            return;
+        }
+        int fils = this.trie.target(edge);
+        if ((this.trie.needs(fils) & ~letters) != 0) {
+            return;
+        }
+        through = through || this.target < 0 || k == this.target;
+        // a path that is yet to go through the target cube needs its letter, and as
+        // many more letters as there are cubes to the target
+        if (!through && ((this.trie.reaches(fils) & 1 << this.letters[this.target]-'A') == 0
+                         || this.trie.height(fils) < distance(k, this.target))) {
+            return;
+        }
+        rank = this.trie.rank(edge, rank);
+        if (depth+2 > this.prefix.length) {
+            this.prefix = Arrays.copyOf(this.prefix, 2*this.prefix.length);
+        }
+        this.prefix[depth++] = c;
+        if (c == 'Q') {
+            this.prefix[depth++] = 'U';
+        }
+        this.mask[k] = true;
+
+        if (through && this.trie.isWord(fils)) {
+            update(rank, sign, depth);
+        }
+
+        for (int e = this.graph.first[k]; e < this.graph.first[k+1]; e++) {
+            if (!this.mask[this.graph.neighbors[e]]) {
+                count(sign, letters, this.graph.neighbors[e], fils, depth, rank, through);
+            }
+        }
+
+        this.mask[k] = false;
+    }
+
+    // least number of moves from the cube k to the cube l
+    private int distance(int k, int l) {
+        return Math.max(Math.abs(k/cols-l/cols), Math.abs(k % cols-l % cols));
+    }
+
+    // add sign to the number of paths of the word of the given rank, spelled by the prefix
+    private void update(int rank, int sign, int depth) {
+        this.paths[rank] += sign;
+        if (sign < 0 && this.paths[rank] == 0) {
+            this.score -= this.trie.score(rank);
+            this.removed.put(rank, this.words.remove(rank));
+        } else if (sign > 0 && this.paths[rank] == 1) {
+            this.score += this.trie.score(rank);
+            // a word removed and added back by the same change is left unchanged
+            String word = this.removed.remove(rank);
+            if (word == null) {
+                word = new String(this.prefix, 0, depth);
+                this.added.add(word);
+            }
+            this.words.put(rank, word);
+        }
+    }
+}
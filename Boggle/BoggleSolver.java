@@ -1,14 +1,34 @@
-import java.util.HashSet;
-import java.util.LinkedList;
-
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
+// A solver can be shared between threads: the trie is only read after the
+// constructor, and each solve takes its own scratch state.
 public class BoggleSolver {
-    private Trie trie;
-    private LinkedList<LinkedList<Position>> boggleGraph;
+    // boards with at least this many cubes are searched in parallel by starting cube
+    private static final int SPLIT_CUBES = 36;
+    private static final int CUBES_PER_TASK = 4;
+    private final CompiledTrie trie;
+    // adjacency of the cubes for each shape of board met so far, keyed by rows and cols
+    private final ConcurrentHashMap<Long, Graph> graphs = new ConcurrentHashMap<Long, Graph>();
+    // scratch states not in use
+    private final ConcurrentLinkedQueue<Search> searches = new ConcurrentLinkedQueue<Search>();
     // Initializes the data structure using the given array of strings as the dictionary.
     // (You can assume each word in the dictionary contains only the uppercase letters A through Z.)
     public BoggleSolver(String[] dictionary) {
-        this.trie = new Trie();
+        this(dictionary, false);
+    }
+
+    // Initializes the data structure with the given dictionary, minimized into a directed
+    // acyclic word graph if minimize is true: the same search then uses less memory.
+    public BoggleSolver(String[] dictionary, boolean minimize) {
+        Trie trie = new Trie();
         for (String word : dictionary) {
             if (word.length() > 2 && word.charAt(word.length()-1) != 'Q') {
                 boolean doNotAdd = false;
@@ -32,73 +52,339 @@ public class BoggleSolver {
                     if (word.charAt(word.length()-2) != 'Q') {
                         sb.append(word.charAt(word.length()-1));
                     }
-                    this.trie.addWord(sb.toString());
+                    trie.addWord(sb.toString(), score(word.length()));
                 }
             }
         }
+        this.trie = new CompiledTrie(trie, minimize);
+    }
+
+    // Initializes the solver from a dictionary written by compile(), memory-mapped read-only.
+    public BoggleSolver(String compiled) throws IOException {
+        this.trie = new CompiledTrie(compiled);
+    }
+
+    // Writes the dictionary to the file name, to be loaded by BoggleSolver(name).
+    public void compile(String name) throws IOException {
+        this.trie.write(name);
     }
 
-    private void generateBoggleGraph(BoggleBoard board) {
-        boggleGraph = new LinkedList<LinkedList<Position>>();
-        
-        for (int i = 0; i < board.rows(); i++) {
-            for (int j = 0; j < board.cols(); j++) {
-                boggleGraph.add(new LinkedList<Position>());
-                for (int x = i-1; x <= i+1; x++) {
-                    if (0 <= x && x < board.rows()) {
-                        for (int y = j-1; y <= j+1; y++) {
-                            if (0 <= y && y < board.cols()) {
-                                boggleGraph.get(i*board.cols()+j).add(new Position(x, y));
+    // cubes of a rows-by-cols board, numbered i*cols+j: the neighbors of the cube k
+    // are neighbors[first[k]..first[k+1]-1]
+    static class Graph {
+        final int[] first;
+        final int[] neighbors;
+
+        Graph(int rows, int cols) {
+            this.first = new int[rows*cols+1];
+            int[] neighbors = new int[8*rows*cols];
+            int n = 0;
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    this.first[i*cols+j] = n;
+                    for (int x = Math.max(i-1, 0); x <= Math.min(i+1, rows-1); x++) {
+                        for (int y = Math.max(j-1, 0); y <= Math.min(j+1, cols-1); y++) {
+                            if (x != i || y != j) {
+                                neighbors[n++] = x*cols+y;
                             }
                         }
                     }
                 }
-            }    
+            }
+            this.first[rows*cols] = n;
+            this.neighbors = Arrays.copyOf(neighbors, n);
         }
     }
-    
-    private LinkedList<Position> getAdjacentCubes(BoggleBoard board, int i, int j) {
-        return this.boggleGraph.get(i*board.cols()+j);
+
+    // adjacency of the boards of this shape, built on the first call
+    Graph graphOf(BoggleBoard board) {
+        Long shape = (long) board.rows() << 32 | board.cols();
+        Graph graph = this.graphs.get(shape);
+        if (graph == null) {
+            graph = new Graph(board.rows(), board.cols());
+            Graph previous = this.graphs.putIfAbsent(shape, graph);
+            if (previous != null) {
+                graph = previous;
+            }
+        }
+        return graph;
     }
-    
-    // Returns the set of all valid words in the given Boggle board, as an Iterable.
-    public Iterable<String> getAllValidWords(BoggleBoard board) {
-        boolean[][] mask = new boolean[board.rows()][board.cols()];
-        LinkedList<Character> prefix = new LinkedList<Character>();
-        HashSet<String> words = new HashSet<String>();
-        
-        generateBoggleGraph(board);
-        
-        for (int i = 0; i < board.rows(); i++) {
-            for (int j = 0; j < board.cols(); j++) {
-                explore(board, prefix, words, mask, i, j, trie.root);
+
+    // words found by a search: their total score, and optionally the words
+    // and their ranks in the dictionary
+    private static class Words {
+        final ArrayList<String> words;
+        int[] ranks;
+        int size;
+        int score;
+
+        Words(boolean strings, boolean ranks) {
+            this.words = strings ? new ArrayList<String>() : null;
+            this.ranks = ranks ? new int[16] : null;
+        }
+
+        void add(int rank, int score, String word) {
+            this.score += score;
+            if (this.ranks != null) {
+                if (this.size == this.ranks.length) {
+                    this.ranks = Arrays.copyOf(this.ranks, 2*this.ranks.length);
+                }
+                this.ranks[this.size] = rank;
+            }
+            if (this.words != null) {
+                this.words.add(word);
             }
+            this.size++;
         }
+    }
 
-        return words;
+    // scratch state of a search, used by one thread at a time: the letters of the
+    // board, the current path (with Q expanded to QU), the cubes on it, and for each
+    // word (by rank) the last solve in which it was found
+    private class Search {
+        private char[] prefix = new char[32];
+        private char[] letters = new char[16];
+        private boolean[] mask = new boolean[16];
+        private int onBoard; // letters of the board (bit c for 'A'+c)
+        private final int[] found = new int[trie.words()];
+        private int generation;
+
+        // start a new solve; a new generation makes all the stamps stale, without clearing found[]
+        void begin() {
+            if (++this.generation == 0) {
+                Arrays.fill(this.found, 0);
+                this.generation = 1;
+            }
+        }
+
+        void load(BoggleBoard board) {
+            int cubes = board.rows()*board.cols();
+            if (this.mask.length < cubes) {
+                this.mask = new boolean[cubes];
+                this.letters = new char[cubes];
+            }
+            this.onBoard = 0;
+            for (int i = 0; i < board.rows(); i++) {
+                for (int j = 0; j < board.cols(); j++) {
+                    this.letters[i*board.cols()+j] = board.getLetter(i, j);
+                    this.onBoard |= 1 << board.getLetter(i, j)-'A';
+                }
+            }
+        }
+
+        // mark the word of the given rank as found; returns false if it already was in this solve
+        boolean mark(int rank) {
+            if (this.found[rank] == this.generation) {
+                return false;
+            }
+            this.found[rank] = this.generation;
+            return true;
+        }
+
+        // add to words the words starting on the cubes lo..hi-1
+        void explore(Graph graph, int lo, int hi, Words words) {
+            for (int k = lo; k < hi; k++) {
+                explore(graph, words, k, Trie.ROOT, 0, 0);
+            }
+        }
+
+        // rank is the rank of the first word below the node n
+        private void explore(Graph graph, Words words, int k, int n, int depth, int rank) {
+            char c = this.letters[k];
+            int edge = trie.edge(n, c);
+            if (edge < 0) {
+                return;
+            }
+            int fils = trie.target(edge);
+            // no word below fils can be formed if it needs a letter that is not on the board
+            if ((trie.needs(fils) & ~this.onBoard) != 0) {
+                return;
+            }
+            rank = trie.rank(edge, rank);
+            if (depth+2 > this.prefix.length) {
+                this.prefix = Arrays.copyOf(this.prefix, 2*this.prefix.length);
+            }
+            this.prefix[depth++] = c;
+            if (c == 'Q') {
+                this.prefix[depth++] = 'U';
+            }
+            this.mask[k] = true;
+
+            // the string is only built the first time the word is found, and only if needed
+            if (trie.isWord(fils) && mark(rank)) {
+                words.add(rank, trie.score(rank), words.words == null ? null : new String(this.prefix, 0, depth));
+            }
+
+            for (int e = graph.first[k]; e < graph.first[k+1]; e++) {
+                if (!this.mask[graph.neighbors[e]]) {
+                    explore(graph, words, graph.neighbors[e], fils, depth, rank);
+                }
+            }
+
+            this.mask[k] = false;
+        }
     }
 
-    private void explore(BoggleBoard board, LinkedList<Character> prefix, HashSet<String> words, boolean[][] mask, int i, int j, Node n) {
-        char c = board.getLetter(i, j);
-        Node fils = n.findSon(c);
-        if (fils == null) {
-            return;
+    private Search acquire() {
+        Search search = this.searches.poll();
+        return search == null ? new Search() : search;
+    }
+
+    private void release(Search search) {
+        this.searches.offer(search);
+    }
+
+    // words of board (or only their score), searched in parallel by starting cube on large boards
+    private Words solve(BoggleBoard board, boolean strings) {
+        Graph graph = graphOf(board);
+        int cubes = board.rows()*board.cols();
+        if (cubes >= SPLIT_CUBES) {
+            return new Cubes(board, graph, 0, cubes, strings).invoke();
+        }
+        return search(board, graph, 0, cubes, new Words(strings, false));
+    }
+
+    // add to words the words of board starting on the cubes lo..hi-1
+    private Words search(BoggleBoard board, Graph graph, int lo, int hi, Words words) {
+        Search search = acquire();
+        try {
+            search.begin();
+            search.load(board);
+            search.explore(graph, lo, hi, words);
+            return words;
+        } finally {
+            release(search);
+        }
+    }
+
+    // union of the words found from two sets of starting cubes
+    private Words merge(Words a, Words b) {
+        Search search = acquire();
+        try {
+            search.begin();
+            Words words = new Words(a.words != null, true);
+            for (Words part : new Words[] { a, b }) {
+                for (int w = 0; w < part.size; w++) {
+                    int rank = part.ranks[w];
+                    if (search.mark(rank)) {
+                        words.add(rank, this.trie.score(rank), part.words == null ? null : part.words.get(w));
+                    }
+                }
+            }
+            return words;
+        } finally {
+            release(search);
         }
-        prefix.addLast(c);
-        mask[i][j] = true;
+    }
 
-        if (fils.isWord()) {
-            words.add(Trie.convertToString(prefix));
+    // search from the cubes lo..hi-1 of a large board, split in halves
+    private class Cubes extends RecursiveTask<Words> {
+        private static final long serialVersionUID = 1L;
+        private final BoggleBoard board;
+        private final Graph graph;
+        private final int lo, hi;
+        private final boolean strings;
+
+        Cubes(BoggleBoard board, Graph graph, int lo, int hi, boolean strings) {
+            this.board = board;
+            this.graph = graph;
+            this.lo = lo;
+            this.hi = hi;
+            this.strings = strings;
         }
 
-        for (Position pos : getAdjacentCubes(board, i, j)) {
-            if (!mask[pos.x][pos.y]) {
-                explore(board, prefix, words, mask, pos.x, pos.y, fils);
+        protected Words compute() {
+            if (hi-lo <= CUBES_PER_TASK) {
+                return search(board, graph, lo, hi, new Words(strings, true));
             }
+            int mid = (lo+hi) >>> 1;
+            Cubes left = new Cubes(board, graph, lo, mid, strings);
+            left.fork();
+            Words right = new Cubes(board, graph, mid, hi, strings).compute();
+            return merge(left.join(), right);
+        }
+    }
+
+    // solve the boards lo..hi-1, storing their words or their scores
+    private class Boards extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<BoggleBoard> boards;
+        private final int lo, hi;
+        private final List<Iterable<String>> words;
+        private final int[] scores;
+
+        Boards(List<BoggleBoard> boards, int lo, int hi, List<Iterable<String>> words, int[] scores) {
+            this.boards = boards;
+            this.lo = lo;
+            this.hi = hi;
+            this.words = words;
+            this.scores = scores;
         }
 
-        prefix.removeLast();
-        mask[i][j] = false;
+        protected void compute() {
+            if (hi-lo > 1) {
+                int mid = (lo+hi) >>> 1;
+                invokeAll(new Boards(boards, lo, mid, words, scores), new Boards(boards, mid, hi, words, scores));
+                return;
+            }
+            if (words != null) {
+                words.set(lo, solve(boards.get(lo), true).words);
+            } else {
+                scores[lo] = solve(boards.get(lo), false).score;
+            }
+        }
+    }
+
+    // Returns the set of all valid words in the given Boggle board, as an Iterable.
+    public Iterable<String> getAllValidWords(BoggleBoard board) {
+        return solve(board, true).words;
+    }
+
+    // Returns a session over a copy of the given board, whose cubes can then be
+    // changed one at a time, re-solving only the paths through the changed cube.
+    public BoggleSession session(BoggleBoard board) {
+        return new BoggleSession(this, board);
+    }
+
+    CompiledTrie trie() {
+        return this.trie;
+    }
+
+    // Returns the total score of the valid words in the given Boggle board,
+    // without building the words.
+    public int scoreBoard(BoggleBoard board) {
+        return solve(board, false).score;
+    }
+
+    // Returns the valid words of each of the given boards, in the same order.
+    // The boards are solved in parallel on the common fork/join pool.
+    public List<Iterable<String>> solveAll(List<BoggleBoard> boards) {
+        // check arguments
+        if (boards == null) {
+            throw new NullPointerException("boards should not be null.");
+        }
+        List<Iterable<String>> words = new ArrayList<Iterable<String>>(boards.size());
+        for (int b = 0; b < boards.size(); b++) {
+            words.add(null);
+        }
+        if (!boards.isEmpty()) {
+            ForkJoinPool.commonPool().invoke(new Boards(boards, 0, boards.size(), words, null));
+        }
+        return words;
+    }
+
+    // Returns the score of each of the given boards, in the same order.
+    // The boards are solved in parallel on the common fork/join pool.
+    public int[] scoreAll(List<BoggleBoard> boards) {
+        // check arguments
+        if (boards == null) {
+            throw new NullPointerException("boards should not be null.");
+        }
+        int[] scores = new int[boards.size()];
+        if (!boards.isEmpty()) {
+            ForkJoinPool.commonPool().invoke(new Boards(boards, 0, boards.size(), null, scores));
+        }
+        return scores;
     }
 
     // Returns the score of the given word if it is in the dictionary, zero otherwise.
@@ -107,7 +393,11 @@ public class BoggleSolver {
         if (!this.trie.wordExists(word.replace("QU", "Q"))) {
             return 0;
         }
-        int l = word.length();
+        return score(word.length());
+    }
+
+    // score of a word of length l (counting Qu as two letters)
+    private static int score(int l) {
         if (l <= 4) {
             return 1;
         } else if (l == 5) {
@@ -120,10 +410,21 @@ public class BoggleSolver {
         return 11;
     }
 
-    public static void main(String[] args) {
-        In in = new In(args[0]);
-        String[] dictionary = in.readAllStrings();
-        BoggleSolver solver = new BoggleSolver(dictionary);
+    // with "-c dictionary compiled", compile the dictionary into the file compiled
+    // with "-d dictionary compiled", compile the dictionary minimized into the file compiled
+    // with "-m compiled board", solve the board with the compiled dictionary
+    // with "dictionary board", solve the board with the dictionary
+    public static void main(String[] args) throws IOException {
+        BoggleSolver solver;
+        if (args[0].equals("-c") || args[0].equals("-d")) {
+            new BoggleSolver(new In(args[1]).readAllStrings(), args[0].equals("-d")).compile(args[2]);
+            return;
+        } else if (args[0].equals("-m")) {
+            solver = new BoggleSolver(args[1]);
+            args = new String[] { args[1], args[2] };
+        } else {
+            solver = new BoggleSolver(new In(args[0]).readAllStrings());
+        }
         BoggleBoard board = new BoggleBoard(args[1]);
         int score = 0;
         for (String word : solver.getAllValidWords(board)) {
@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Read-only trie, built from a Trie or memory-mapped from a file written by write(),
+// optionally minimized into a directed acyclic word graph where the nodes with the
+// same suffixes are shared.
+// Node i has the children whose letters are set in the low 26 bits of nodes[4*i]
+// (bit 26 is set if node i ends a word); nodes[4*i+2] has the letters that every word
+// below node i still needs, so that a search can skip the nodes needing letters that are
+// not on the board. The low 26 bits of nodes[4*i+3] have the letters of at least one
+// word below node i, and its high 6 bits the length of the longest of them (63 at most).
+// In a plain trie, the nodes are numbered in breadth-first order, so that the children
+// of node i are the consecutive nodes starting at nodes[4*i+1]; a word is ranked by its
+// last node. In a minimized graph, a node may end words of different lengths: its
+// children are reached through the consecutive edges starting at nodes[4*i+1], edge e
+// leading to the node edges[2*e] and skipping edges[2*e+1] words (the words ending at
+// its origin and below its smaller letters). Adding up the skips along a path gives the
+// rank of its word in lexicographic order.
+// The scores of the words are indexed by their ranks.
+// A mapped trie is shared with every process mapping the same file. The file starts
+// with MAGIC and FORMAT, the version of this layout, which changes with the layout,
+// then the byte order of the rest of the file (1 if little-endian, 0 if big-endian).
+// The rest is written in the native order, so that reading a node swaps no bytes.
+public class CompiledTrie {
+    static final int MAGIC = 0x42475431;
+    static final int FORMAT = 1;
+    private static final int HEADER = 28;
+    private static final int R = 26;
+    private static final int WORD = 1 << 26;
+    private static final int HEIGHT_SHIFT = 26;
+    private static final int MAX_HEIGHT = 63;
+    private final boolean minimized;
+    private final IntBuffer nodes;
+    private final IntBuffer edges;
+    private final ByteBuffer scores;
+    private final int size;
+
+    // compile trie
+    public CompiledTrie(Trie trie) {
+        this(trie, false);
+    }
+
+    // compile trie, merging the nodes with the same suffixes if minimize is true
+    public CompiledTrie(Trie trie, boolean minimize) {
+        // check arguments
+        if (trie == null) {
+            throw new NullPointerException("trie should not be null.");
+        }
+        // Class of each node: itself, or the first node with the same suffixes. The
+        // children of a node were created after it, so they are classified before it.
+        int n = trie.size();
+        int[] classOf = new int[n];
+        HashMap<String, Integer> registry = new HashMap<String, Integer>();
+        StringBuilder key = new StringBuilder();
+        for (int node = n-1; node >= 0; node--) {
+            classOf[node] = node;
+            if (minimize) {
+                key.setLength(0);
+                key.append(trie.isWord(node) ? '1' : '0');
+                for (int c = 0; c < R; c++) {
+                    int son = trie.child(node, (char) ('A'+c));
+                    if (son != 0) {
+                        key.append((char) ('A'+c)).append((char) (classOf[son] >>> 16)).append((char) classOf[son]);
+                    }
+                }
+                Integer previous = registry.get(key.toString());
+                if (previous == null) {
+                    registry.put(key.toString(), node);
+                } else {
+                    classOf[node] = previous;
+                }
+            }
+        }
+
+        // Number of words below each class, and letters needed by all of them or by
+        // at least one of them, children first
+        int[] count = new int[n], needs = new int[n], reaches = new int[n], height = new int[n];
+        for (int node = n-1; node >= 0; node--) {
+            if (classOf[node] == node) {
+                count[node] = trie.isWord(node) ? 1 : 0;
+                needs[node] = trie.isWord(node) ? 0 : (1 << R)-1;
+                for (int c = 0; c < R; c++) {
+                    int son = trie.child(node, (char) ('A'+c));
+                    if (son != 0) {
+                        count[node] += count[classOf[son]];
+                        needs[node] &= 1 << c | needs[classOf[son]];
+                        reaches[node] |= 1 << c | reaches[classOf[son]];
+                        height[node] = Math.max(height[node], Math.min(height[classOf[son]]+1, MAX_HEIGHT));
+                    }
+                }
+            }
+        }
+
+        // Number the classes in breadth-first order, the root first
+        int[] id = new int[n];
+        int[] order = new int[n];
+        Arrays.fill(id, -1);
+        id[Trie.ROOT] = 0;
+        int classes = 1, edgeCount = 0;
+        for (int head = 0; head < classes; head++) {
+            int node = order[head];
+            for (int c = 0; c < R; c++) {
+                int son = trie.child(node, (char) ('A'+c));
+                if (son != 0) {
+                    edgeCount++;
+                    if (id[classOf[son]] < 0) {
+                        id[classOf[son]] = classes;
+                        order[classes++] = classOf[son];
+                    }
+                }
+            }
+        }
+
+        // In a plain trie, the e-th edge in breadth-first order leads to the node e+1
+        int[] nodes = new int[4*classes], edges = new int[minimize ? 2*edgeCount : 0];
+        for (int k = 0, e = 0; k < classes; k++) {
+            int node = order[k], bits = trie.isWord(node) ? WORD : 0;
+            int skip = trie.isWord(node) ? 1 : 0;
+            nodes[4*k+1] = minimize ? e : e+1;
+            nodes[4*k+2] = needs[node];
+            nodes[4*k+3] = reaches[node] | height[node] << HEIGHT_SHIFT;
+            for (int c = 0; c < R; c++) {
+                int son = trie.child(node, (char) ('A'+c));
+                if (son != 0) {
+                    bits |= 1 << c;
+                    if (minimize) {
+                        edges[2*e] = id[classOf[son]];
+                        edges[2*e+1] = skip;
+                        skip += count[classOf[son]];
+                    }
+                    e++;
+                }
+            }
+            nodes[4*k] = bits;
+        }
+
+        // Scores of the words, by node or in lexicographic order
+        byte[] scores;
+        if (minimize) {
+            scores = new byte[count[Trie.ROOT]];
+            collectScores(trie, Trie.ROOT, scores, 0);
+        } else {
+            scores = new byte[classes];
+            for (int k = 0; k < classes; k++) {
+                scores[k] = (byte) (trie.isWord(order[k]) ? trie.score(order[k]) : 0);
+            }
+        }
+
+        this.minimized = minimize;
+        this.size = classes;
+        this.nodes = IntBuffer.wrap(nodes);
+        this.edges = IntBuffer.wrap(edges);
+        this.scores = ByteBuffer.wrap(scores);
+    }
+
+    // map the compiled trie stored in the file name
+    public CompiledTrie(String name) throws IOException {
+        // check arguments
+        if (name == null) {
+            throw new NullPointerException("name should not be null.");
+        }
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        try {
+            long length = file.length();
+            if (length < 8 || length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Not a compiled dictionary.");
+            }
+            ByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (mapped.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a compiled dictionary.");
+            }
+            int format = mapped.getInt();
+            if (format != FORMAT) {
+                throw new IllegalArgumentException("Compiled dictionary of format "+format+", expected "+FORMAT+": compile it again.");
+            }
+            if (length < HEADER) {
+                throw new IllegalArgumentException("Corrupted compiled dictionary.");
+            }
+            int little = mapped.getInt();
+            if (little < 0 || little > 1) {
+                throw new IllegalArgumentException("Corrupted compiled dictionary.");
+            }
+            ByteOrder order = little == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            mapped.order(order);
+            int minimized = mapped.getInt(), n = mapped.getInt(), m = mapped.getInt(), words = mapped.getInt();
+            if (minimized < 0 || minimized > 1 || n <= 0 || m < 0 || words < 0
+                || minimized == 0 && (m != 0 || words != n) || HEADER+16L*n+8L*m+words != length) {
+                throw new IllegalArgumentException("Corrupted compiled dictionary.");
+            }
+            this.minimized = minimized == 1;
+            this.size = n;
+            this.nodes = slice(mapped, HEADER, 16*n).order(order).asIntBuffer();
+            this.edges = slice(mapped, HEADER+16*n, 8*m).order(order).asIntBuffer();
+            this.scores = slice(mapped, HEADER+16*n+8*m, words);
+        } finally {
+            file.close(); // the mapping stays valid
+        }
+    }
+
+    // write the trie to the file name, to be mapped later
+    public void write(String name) throws IOException {
+        int m = this.edges.limit()/2, words = this.scores.limit();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER+16*this.size+8*m+words);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT);
+        buffer.putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(this.minimized ? 1 : 0);
+        buffer.putInt(this.size);
+        buffer.putInt(m);
+        buffer.putInt(words);
+        for (int i = 0; i < 4*this.size; i++) {
+            buffer.putInt(this.nodes.get(i));
+        }
+        for (int i = 0; i < 2*m; i++) {
+            buffer.putInt(this.edges.get(i));
+        }
+        for (int i = 0; i < words; i++) {
+            buffer.put(this.scores.get(i));
+        }
+        buffer.flip();
+        RandomAccessFile file = new RandomAccessFile(name, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    public boolean wordExists(String s) {
+        int node = Trie.ROOT;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return false;
+            }
+            int e = edge(node, c);
+            if (e < 0) {
+                return false;
+            }
+            node = target(e);
+        }
+        return isWord(node);
+    }
+
+    // edge from node for the letter c, or -1 if there is none; in a plain trie,
+    // the edge is the child itself
+    int edge(int node, char c) {
+        int bits = this.nodes.get(4*node), b = c-'A';
+        if ((bits & 1 << b) == 0) {
+            return -1;
+        }
+        return this.nodes.get(4*node+1)+Integer.bitCount(bits & ((1 << b)-1));
+    }
+
+    // node reached by the edge e
+    int target(int e) {
+        return this.minimized ? this.edges.get(2*e) : e;
+    }
+
+    // rank of the first word below the node reached by the edge e, given the rank
+    // of the first word below its origin
+    int rank(int e, int rank) {
+        return this.minimized ? rank+this.edges.get(2*e+1) : e;
+    }
+
+    // is node the end of a word?
+    boolean isWord(int node) {
+        return (this.nodes.get(4*node) & WORD) != 0;
+    }
+
+    // letters (bit c for 'A'+c) in every word below node
+    int needs(int node) {
+        return this.nodes.get(4*node+2);
+    }
+
+    // letters (bit c for 'A'+c) in at least one word below node
+    int reaches(int node) {
+        return this.nodes.get(4*node+3) & WORD-1;
+    }
+
+    // letters of the longest word below node, or MAX_HEIGHT if it is longer
+    int height(int node) {
+        return this.nodes.get(4*node+3) >>> HEIGHT_SHIFT;
+    }
+
+    // score of the word of the given rank
+    int score(int word) {
+        return this.scores.get(word);
+    }
+
+    // number of nodes
+    int size() {
+        return this.size;
+    }
+
+    // number of ranks of words
+    int words() {
+        return this.scores.limit();
+    }
+
+    // store the scores of the words below node, whose first has the given rank;
+    // returns the rank after the last of them
+    private static int collectScores(Trie trie, int node, byte[] scores, int rank) {
+        if (trie.isWord(node)) {
+            scores[rank++] = (byte) trie.score(node);
+        }
+        for (int c = 0; c < R; c++) {
+            int son = trie.child(node, (char) ('A'+c));
+            if (son != 0) {
+                rank = collectScores(trie, son, scores, rank);
+            }
+        }
+        return rank;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.limit(position+length);
+        return view.slice();
+    }
+}
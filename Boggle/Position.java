@@ -1,9 +0,0 @@
-
-public class Position {
-    public final int x;
-    public final int y;
-    public Position(int x, int y) {
-        this.x = x;
-        this.y = y;
-    }
-}
@@ -1,143 +1,95 @@
-import java.util.LinkedList;
+import java.util.Arrays;
 
+// Trie over the letters A to Z, stored in flat arrays: node i has its children
+// in next[i*R..i*R+R-1] (0 if there is none, as the root is never a child)
+// and is the end of a word if word[i] is true, whose score is score[i]
 public class Trie {
-    final Node root;
-    
+    static final int R = 26;
+    static final int ROOT = 0;
+    private int[] next;
+    private boolean[] word;
+    private byte[] score;
+    private int size;
+
     public Trie() {
-        root = new Node('_');
+        this.next = new int[R*16];
+        this.word = new boolean[16];
+        this.score = new byte[16];
+        this.size = 1;
     }
 
     public boolean wordExists(String s) {
-        return root.wordExists(s);
+        int node = find(s);
+        return node >= 0 && word[node];
     }
-    
+
     public boolean addWord(String s) {
-        Node node = root;
-        int pos = 0;
-        boolean continueSearch = true;
-        
-        while (continueSearch) {
-            continueSearch = false;
-            
-            if (s.length() == pos) {     
-                for (Node son : node.sons) {
-                    if (son.c == '*') {
-                        return false;
-                    }
-                }
-                break;
-            }
-            
-            for (Node son : node.sons) {
-                if (son.c == s.charAt(pos)) {
-                    continueSearch = true;
-                    node = son;
-                    pos++;
-                    break;
-                }
+        return addWord(s, 0);
+    }
+
+    // add s with the given score (at most 127)
+    boolean addWord(String s, int score) {
+        int node = ROOT;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i)-'A';
+            if (next[node*R+c] == 0) {
+                int son = newNode(); // may grow next[]
+                next[node*R+c] = son;
             }
-        }
-        
-        for (int i = pos; i < s.length(); i++) {
-            Node n = new Node(s.charAt(i));
-            node.addSon(n);
-            node = n;
+            node = next[node*R+c];
         }
 
-        node.addSon(new Node('*'));
+        if (word[node]) {
+            return false;
+        }
+        word[node] = true;
+        this.score[node] = (byte) score;
         return true;
     }
-    
+
     public boolean isPrefix(String s) {
-        Node node = root;
-        boolean isPrefix = true;
-        
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            isPrefix = false;
-            for (Node son : node.sons) {
-                if (son.c == c) {
-                    isPrefix = true;
-                    node = son;
-                    break;
-                }
-            }
-            
-            if (!isPrefix) {
-                return false;
-            }
-        }
-        
-        return true;
+        return find(s) >= 0;
     }
-    
-    public static String convertToString(LinkedList<Character> l) {
-        StringBuilder sb = new StringBuilder();
-        for (Character c: l) {
-            if (c == 'Q') {
-                sb.append("QU");
-            } else {
-                sb.append(c);
-            }
-        }
-        return sb.toString();
+
+    // child of node for the letter c, or 0 if there is none
+    int child(int node, char c) {
+        return next[node*R+c-'A'];
     }
-}
 
-class Node {
-    public char c;
-    public LinkedList<Node> sons;
-    
-    Node(char c) {
-        this.c = c;
-        this.sons = new LinkedList<Node>();
+    // is node the end of a word?
+    boolean isWord(int node) {
+        return word[node];
     }
-    
-    public void addSon(Node a) {
-        int pos = 0;
-        for (Node son: sons)
-            if (son.c < a.c) {
-                pos++;
-            } else {
-                break;
-            }
-        
-        sons.add(pos, a);
+
+    // score of the word ending at node
+    int score(int node) {
+        return score[node];
     }
-    
-    public boolean wordExistsRec(String s, int pos) {
-        if (s.length() == pos) {
-            for (Node node : sons) {
-                if (node.c == '*') {
-                    return true;
-                }
-            }
-            return false;
-        }
 
-        for (Node node : sons) {
-            if (node.c == s.charAt(pos)) {
-                return node.wordExistsRec(s, pos+1);
+    // number of nodes
+    int size() {
+        return size;
+    }
+
+    // node reached by s, or -1 if s is not a prefix
+    private int find(String s) {
+        int node = ROOT;
+        for (int i = 0; i < s.length() && node >= 0; i++) {
+            int c = s.charAt(i)-'A';
+            if (c < 0 || c >= R) {
+                return -1;
             }
+            node = next[node*R+c] == 0 ? -1 : next[node*R+c];
         }
-        return false;
+        return node;
     }
-    
-    public boolean isWord() {
-        return this.findSon('*') != null;
-    }
-    
-    public boolean wordExists(String s) {
-        return wordExistsRec(s, 0);
-    }
-    
-    public Node findSon(char c) {
-        for (Node n : sons) {
-            if (n.c == c) {
-                return n;
-            }
+
+    private int newNode() {
+        if (size == word.length) {
+            next = Arrays.copyOf(next, 2*R*size);
+            word = Arrays.copyOf(word, 2*size);
+            score = Arrays.copyOf(score, 2*size);
         }
-        
-        return null;
+        return size++;
     }
 }
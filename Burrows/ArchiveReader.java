@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Random access to the uncompressed bytes of a BlockCompressor archive: the footer
+// index is loaded once, and only the blocks covering a requested range are decoded.
+// Patterns are searched with an FM-index per block, built from the last column of
+// the block without inverting the transform; the occurrences that span two blocks
+// are found in the bytes around each boundary, extracted from the FM-indexes.
+public class ArchiveReader {
+    private static final int DEFAULT_SAMPLE_RATE = 32;
+    // FM-indexes kept at once, the oldest being dropped first
+    private static final int CACHED_INDEXES = 8;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] frameOffsets;
+    private final long[] offsets; // uncompressed offset of each block, then the total length
+    // last decoded block, as point lookups tend to hit the same block
+    private int cachedBlock = -1;
+    private byte[] cached;
+    // FM-indexes in the cache, sampled every sampleRate positions, and the blocks
+    // they were built for, in the order they were built
+    private final int sampleRate;
+    private final FMIndex[] indexes;
+    private final int[] built = new int[CACHED_INDEXES];
+    private int builds;
+
+    // open the archive stored in the file name
+    public ArchiveReader(String name) throws IOException {
+        this(name, DEFAULT_SAMPLE_RATE);
+    }
+
+    // open the archive stored in the file name, sampling its FM-indexes every sampleRate positions
+    public ArchiveReader(String name, int sampleRate) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name should not be null.");
+        } else if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate should be positive (sampleRate="+sampleRate+").");
+        }
+        this.sampleRate = sampleRate;
+        this.file = new RandomAccessFile(name, "r");
+        this.channel = this.file.getChannel();
+        try {
+            long size = this.channel.size();
+            if (size < 4+4+4+12) {
+                throw new IllegalArgumentException("Not a BlockCompressor archive.");
+            }
+            ByteBuffer trailer = readFully(size-12, 12);
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != BlockCompressor.MAGIC || indexOffset < 8 || indexOffset > size-16) {
+                throw new IllegalArgumentException("Not a BlockCompressor archive.");
+            }
+            int blocks = readFully(indexOffset, 4).getInt();
+            if (blocks < 0 || 16L*blocks != size-12-indexOffset-4) {
+                throw new IllegalArgumentException("Corrupted archive index.");
+            }
+            ByteBuffer index = readFully(indexOffset+4, 16*blocks);
+            this.frameOffsets = new long[blocks];
+            this.indexes = new FMIndex[blocks];
+            this.offsets = new long[blocks+1];
+            for (int i = 0; i < blocks; i++) {
+                this.frameOffsets[i] = index.getLong();
+                this.offsets[i] = index.getLong();
+            }
+            if (blocks > 0) {
+                // The length of the last block is the first field of its frame
+                int last = readFully(this.frameOffsets[blocks-1]+4, 4).getInt();
+                this.offsets[blocks] = this.offsets[blocks-1]+last;
+            }
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    // number of uncompressed bytes
+    public long length() {
+        return this.offsets[this.offsets.length-1];
+    }
+
+    // number of blocks
+    public int blocks() {
+        return this.frameOffsets.length;
+    }
+
+    // uncompressed bytes offset..offset+length-1
+    public byte[] read(long offset, int length) throws IOException {
+        // check arguments
+        if (offset < 0 || length < 0 || offset+length > length()) {
+            throw new IndexOutOfBoundsException("Range ["+offset+", "+(offset+length)+") should be within [0, "+length()+").");
+        }
+        byte[] result = new byte[length];
+        int copied = 0;
+        for (int b = block(offset); copied < length; b++) {
+            byte[] data = decode(b);
+            int from = (int) (offset+copied-this.offsets[b]);
+            int n = Math.min(data.length-from, length-copied);
+            System.arraycopy(data, from, result, copied, n);
+            copied += n;
+        }
+        return result;
+    }
+
+    // number of occurrences of pattern in the uncompressed bytes
+    public long count(byte[] pattern) throws IOException {
+        long count = 0;
+        for (int b = 0; b < blocks(); b++) {
+            count += inBlock(index(b), pattern)+spanning(b, pattern).length;
+        }
+        return count;
+    }
+
+    // sorted uncompressed offsets of the occurrences of pattern
+    public long[] locate(byte[] pattern) throws IOException {
+        long[][] found = new long[blocks()][];
+        int total = 0;
+        for (int b = 0; b < blocks(); b++) {
+            FMIndex index = index(b);
+            int[] positions = index.locate(pattern);
+            long[] spanning = spanning(b, pattern);
+            found[b] = new long[positions.length+spanning.length];
+            int k = 0;
+            for (int pos : positions) {
+                // Skip the occurrences that wrap around the end of the circular block
+                if ((long) pos+pattern.length <= index.length()) {
+                    found[b][k++] = this.offsets[b]+pos;
+                }
+            }
+            // The occurrences spanning the next block start after all the others
+            System.arraycopy(spanning, 0, found[b], k, spanning.length);
+            k += spanning.length;
+            found[b] = Arrays.copyOf(found[b], k);
+            total += k;
+        }
+        long[] result = new long[total];
+        for (int b = 0, k = 0; b < blocks(); b++) {
+            System.arraycopy(found[b], 0, result, k, found[b].length);
+            k += found[b].length;
+        }
+        return result;
+    }
+
+    // FM-index of the block b, built on first use
+    public FMIndex index(int b) throws IOException {
+        if (b < 0 || b >= blocks()) {
+            throw new IndexOutOfBoundsException("Block should be between 0 and "+(blocks()-1)+" (b="+b+").");
+        }
+        if (this.indexes[b] == null) {
+            BlockCompressor.Frame frame = BlockCompressor.decodeFrame(readFrame(b));
+            int start = frame.t.length == 0 ? 0 : FMIndex.rowOfFirst(frame.t, frame.starts[0]);
+            // Drop the oldest index once the cache is full
+            int slot = this.builds++ % CACHED_INDEXES;
+            if (this.builds > CACHED_INDEXES) {
+                this.indexes[this.built[slot]] = null;
+            }
+            this.built[slot] = b;
+            this.indexes[b] = new FMIndex(frame.t, start, this.sampleRate);
+        }
+        return this.indexes[b];
+    }
+
+    // number of occurrences of pattern in the block, without those that wrap around
+    // the end of the circular block: as in locate, an occurrence at pos ends at pos+m <= n
+    private static int inBlock(FMIndex index, byte[] pattern) {
+        int n = index.length(), m = pattern.length;
+        if (m > n) {
+            return 0;
+        }
+        int count = index.count(pattern);
+        for (int pos = n-m+1; pos < n; pos++) {
+            if (Arrays.equals(index.extract(pos, m), pattern)) {
+                count--;
+            }
+        }
+        return count;
+    }
+
+    // sorted offsets of the occurrences of pattern that start in the block b and end in
+    // a later block, found in the last m-1 bytes of b and the m-1 bytes after it
+    private long[] spanning(int b, byte[] pattern) throws IOException {
+        int m = pattern.length;
+        long end = this.offsets[b+1];
+        long from = Math.max(this.offsets[b], end-m+1), to = Math.min(length(), end+m-1);
+        if (m < 2 || to-from < m) {
+            return new long[0];
+        }
+        byte[] window = extract(from, (int) (to-from));
+        long[] result = new long[(int) (end-from)];
+        int k = 0;
+        for (int i = 0; from+i < end && i+m <= window.length; i++) {
+            int j = 0;
+            while (j < m && window[i+j] == pattern[j]) {
+                j++;
+            }
+            if (j == m) {
+                result[k++] = from+i;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    // uncompressed bytes offset..offset+length-1, extracted from the FM-indexes of their blocks
+    private byte[] extract(long offset, int length) throws IOException {
+        byte[] result = new byte[length];
+        int copied = 0;
+        for (int b = block(offset); copied < length; b++) {
+            FMIndex index = index(b);
+            int from = (int) (offset+copied-this.offsets[b]);
+            int n = Math.min(index.length()-from, length-copied);
+            if (n > 0) {
+                System.arraycopy(index.extract(from, n), 0, result, copied, n);
+                copied += n;
+            }
+        }
+        return result;
+    }
+
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+    // block containing the uncompressed offset, by binary search
+    private int block(long offset) {
+        int lo = 0, hi = this.frameOffsets.length-1;
+        while (lo < hi) {
+            int mid = (lo+hi+1) >>> 1;
+            if (this.offsets[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+
+    private byte[] decode(int b) throws IOException {
+        if (b != this.cachedBlock) {
+            this.cached = BlockCompressor.expandBlock(readFrame(b)).data;
+            this.cachedBlock = b;
+        }
+        return this.cached;
+    }
+
+    private BlockCompressor.Block readFrame(int b) throws IOException {
+        int length = readFully(this.frameOffsets[b], 4).getInt();
+        return new BlockCompressor.Block(readFully(this.frameOffsets[b]+4, length).array(), -1);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position+buffer.position()) < 0) {
+                throw new IllegalArgumentException("Truncated archive.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // with 3 arguments, write the uncompressed bytes args[1]..args[1]+args[2]-1
+    // of the archive args[0] to standard output
+    // with 2 arguments, print the offsets of the occurrences of args[1] in the archive args[0]
+    public static void main(String[] args) throws IOException {
+        ArchiveReader reader = new ArchiveReader(args[0]);
+        try {
+            if (args.length == 2) {
+                for (long offset : reader.locate(args[1].getBytes("UTF-8"))) {
+                    StdOut.println(offset);
+                }
+                return;
+            }
+            for (byte b : reader.read(Long.parseLong(args[1]), Integer.parseInt(args[2]))) {
+                BinaryStdOut.write(b);
+            }
+            BinaryStdOut.flush();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+// Block compressor: Burrows-Wheeler transform, move-to-front, zero run-length
+// and multi-table Huffman coding of independent blocks, run by a pool of threads.
+//
+// Container format (big-endian):
+//   int MAGIC
+//   for each block: int length, then length bytes:
+//     int n (uncompressed length), int CRC-32 of the uncompressed bytes,
+//     int segment, int[ceil(n/segment)] start rows of the inverse transform,
+//     Huffman-coded symbols of the zero run-length stage
+//   int -1
+//   index: int blocks, then for each block: long offset of its length, long uncompressed offset
+//   long offset of the index, int MAGIC
+public class BlockCompressor {
+    static final int MAGIC = 0x42574331; // "BWC1"
+    private static final int DEFAULT_BLOCK_SIZE = 900*1024;
+    // blocks in flight per worker before the reader waits for the writer
+    private static final int BLOCKS_PER_THREAD = 2;
+    // size of the mapped input window and of the output buffer in file mode
+    private static final int MAP_WINDOW = 64 << 20;
+    private static final int OUTPUT_BUFFER = 1 << 20;
+    // bytes per chain of the multi-stream inverse transform, each chain costing 4 bytes of output
+    private static final int SEGMENT = 1 << 16;
+    private final int blockSize;
+    private final int threads;
+
+    // compress with blocks of at most blockSize bytes, transformed by a pool of threads workers
+    public BlockCompressor(int blockSize, int threads) {
+        // check arguments
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize should be positive (blockSize="+blockSize+").");
+        } else if (threads <= 0) {
+            throw new IllegalArgumentException("threads should be positive (threads="+threads+").");
+        }
+        this.blockSize = blockSize;
+        this.threads = threads;
+    }
+
+    // compress standard input to standard output
+    public void compress() {
+        try {
+            run(new StdInBytes(), new StdOutBytes(), true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // standard input and output do not throw
+        }
+    }
+
+    // expand standard input to standard output
+    public void expand() {
+        try {
+            run(new StdInBytes(), new StdOutBytes(), false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // compress the file in to the file out, mapping the input in memory
+    public void compress(String in, String out) throws IOException {
+        runFiles(in, out, true);
+    }
+
+    // expand the file in to the file out, mapping the input in memory
+    public void expand(String in, String out) throws IOException {
+        runFiles(in, out, false);
+    }
+
+    private void runFiles(String in, String out, boolean compress) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(in, "r");
+        try {
+            RandomAccessFile output = new RandomAccessFile(out, "rw");
+            try {
+                output.setLength(0);
+                run(new MappedBytes(input.getChannel()), new ChannelBytes(output.getChannel()), compress);
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    // read blocks from in, transform them in the pool and write them to out in input order
+    private void run(ByteInput in, ByteOutput out, final boolean compress) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+        BlockIndex index = new BlockIndex();
+        try {
+            if (compress) {
+                out.write(intBytes(MAGIC));
+            } else if (readInt(in) != MAGIC) {
+                throw new IllegalArgumentException("Not a BlockCompressor archive.");
+            }
+            Block next;
+            while ((next = compress ? readRaw(in) : readFrame(in)) != null) {
+                final Block block = next;
+                pending.addLast(pool.submit(new Callable<Block>() {
+                    public Block call() {
+                        return compress ? compressBlock(block) : expandBlock(block);
+                    }
+                }));
+                // Backpressure: wait for the oldest block once enough are in flight
+                if (pending.size() >= BLOCKS_PER_THREAD*this.threads) {
+                    write(out, await(pending.removeFirst()), compress ? index : null);
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(out, await(pending.removeFirst()), compress ? index : null);
+            }
+            if (compress) {
+                out.write(intBytes(-1));
+                out.write(index.toByteArray());
+            }
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Block readRaw(ByteInput in) throws IOException {
+        byte[] data = in.read(this.blockSize);
+        return data == null ? null : new Block(data, data.length);
+    }
+
+    // next frame, or null at the end marker
+    private static Block readFrame(ByteInput in) throws IOException {
+        int length = readInt(in);
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = in.read(length);
+        if (data == null || data.length < length) {
+            throw new IllegalArgumentException("Truncated block.");
+        }
+        return new Block(data, -1);
+    }
+
+    private static int readInt(ByteInput in) throws IOException {
+        byte[] data = in.read(4);
+        if (data == null || data.length < 4) {
+            throw new IllegalArgumentException("Truncated input.");
+        }
+        return ByteBuffer.wrap(data).getInt();
+    }
+
+    private static byte[] intBytes(int x) {
+        return ByteBuffer.allocate(4).putInt(x).array();
+    }
+
+    // write a frame and record it in the index, or write expanded bytes if index is null
+    private static void write(ByteOutput out, Block block, BlockIndex index) throws IOException {
+        if (index != null) {
+            index.add(4+block.data.length, block.length);
+            out.write(intBytes(block.data.length));
+        }
+        out.write(block.data);
+    }
+
+    static Block compressBlock(Block block) {
+        int n = block.data.length;
+        byte[] t = new byte[n];
+        int[] starts = new int[(n+SEGMENT-1)/SEGMENT];
+        BurrowsWheeler.transform(block.data, 0, n, t, 0, SEGMENT, starts);
+        // MTF can run in place over the last column
+        MoveToFront.encode(t, 0, n, t, 0);
+        char[] symbols = new char[n];
+        int count = MoveToFront.encodeRuns(t, 0, n, symbols);
+        HuffmanCoder.BitWriter bits = new HuffmanCoder.BitWriter();
+        HuffmanCoder.encode(symbols, count, MoveToFront.RUN_ALPHABET, bits);
+        byte[] coded = bits.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(block.data, 0, n);
+        ByteBuffer frame = ByteBuffer.allocate(12+4*starts.length+coded.length);
+        frame.putInt(n).putInt((int) crc.getValue()).putInt(SEGMENT);
+        for (int start : starts) {
+            frame.putInt(start);
+        }
+        frame.put(coded);
+        return new Block(frame.array(), n);
+    }
+
+    static Block expandBlock(Block block) {
+        Frame frame = decodeFrame(block);
+        int n = frame.t.length;
+        byte[] data = new byte[n];
+        BurrowsWheeler.inverseTransform(frame.segment, frame.starts, frame.t, 0, n, data, 0);
+
+        CRC32 check = new CRC32();
+        check.update(data, 0, n);
+        if ((int) check.getValue() != frame.crc) {
+            throw new IllegalArgumentException("Corrupted block: CRC mismatch.");
+        }
+        return new Block(data, n);
+    }
+
+    // parse a frame and decode it up to the last column of its Burrows-Wheeler transform
+    static Frame decodeFrame(Block block) {
+        ByteBuffer frame = ByteBuffer.wrap(block.data);
+        int n = frame.getInt();
+        int crc = frame.getInt();
+        int segment = frame.getInt();
+        if (n < 0 || segment <= 0) {
+            throw new IllegalArgumentException("Corrupted block header.");
+        }
+        int[] starts = new int[(int) (((long) n+segment-1)/segment)];
+        for (int k = 0; k < starts.length; k++) {
+            starts[k] = frame.getInt();
+            if (starts[k] < 0 || starts[k] >= n) {
+                throw new IllegalArgumentException("Corrupted block header.");
+            }
+        }
+        HuffmanCoder.BitReader bits = new HuffmanCoder.BitReader(block.data, frame.position(), block.data.length);
+        char[] symbols = HuffmanCoder.decode(bits, MoveToFront.RUN_ALPHABET);
+        if (MoveToFront.decodeRuns(symbols, 0, symbols.length, null, 0) != n) {
+            throw new IllegalArgumentException("Corrupted block: wrong length.");
+        }
+        byte[] t = new byte[n];
+        MoveToFront.decodeRuns(symbols, 0, symbols.length, t, 0);
+        MoveToFront.decode(t, 0, n, t, 0);
+        return new Frame(crc, segment, starts, t);
+    }
+
+    private static Block await(Future<Block> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // bytes of a block with its uncompressed length (-1 if not known yet)
+    static class Block {
+        final byte[] data;
+        final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    // a decoded frame: the last column t[] and what is needed to invert it
+    static class Frame {
+        final int crc;
+        final int segment;
+        final int[] starts;
+        final byte[] t;
+
+        Frame(int crc, int segment, int[] starts, byte[] t) {
+            this.crc = crc;
+            this.segment = segment;
+            this.starts = starts;
+            this.t = t;
+        }
+    }
+
+    // offsets of the frames written so far, serialized as the footer of the archive
+    private static class BlockIndex {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream entries = new DataOutputStream(bytes);
+        private int blocks;
+        private long offset = 4; // after MAGIC
+        private long uncompressed;
+
+        void add(int frameLength, int length) throws IOException {
+            this.entries.writeLong(this.offset);
+            this.entries.writeLong(this.uncompressed);
+            this.blocks++;
+            this.offset += frameLength;
+            this.uncompressed += length;
+        }
+
+        // index and trailer, to be written after the end marker
+        byte[] toByteArray() {
+            long start = this.offset+4;
+            byte[] data = this.bytes.toByteArray();
+            return ByteBuffer.allocate(4+data.length+12)
+                .putInt(this.blocks).put(data).putLong(start).putInt(MAGIC).array();
+        }
+    }
+
+    private interface ByteInput {
+        // next n bytes (fewer only at the end of the input), or null if the input is exhausted
+        byte[] read(int n) throws IOException;
+    }
+
+    private interface ByteOutput {
+        void write(byte[] data) throws IOException;
+        void flush() throws IOException;
+    }
+
+    private static class StdInBytes implements ByteInput {
+        public byte[] read(int n) {
+            if (BinaryStdIn.isEmpty()) {
+                return null;
+            }
+            ByteArrayOutputStream data = new ByteArrayOutputStream(Math.min(n, OUTPUT_BUFFER));
+            for (int i = 0; i < n && !BinaryStdIn.isEmpty(); i++) {
+                data.write(BinaryStdIn.readChar());
+            }
+            return data.toByteArray();
+        }
+    }
+
+    private static class StdOutBytes implements ByteOutput {
+        public void write(byte[] data) {
+            for (byte b : data) {
+                BinaryStdOut.write(b);
+            }
+        }
+
+        public void flush() {
+            BinaryStdOut.flush();
+        }
+    }
+
+    // bytes read from a file through a sliding memory-mapped window
+    private static class MappedBytes implements ByteInput {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        MappedBytes(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        public byte[] read(int n) throws IOException {
+            long pos = this.window == null ? 0 : this.windowStart+this.window.position();
+            if (pos >= this.size) {
+                return null;
+            }
+            n = (int) Math.min(n, this.size-pos);
+            // Remap the window when the bytes are not all mapped
+            if (this.window == null || this.window.remaining() < n) {
+                this.windowStart = pos;
+                long length = Math.min(this.size-pos, Math.max(n, MAP_WINDOW));
+                this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            }
+            byte[] data = new byte[n];
+            this.window.get(data);
+            return data;
+        }
+    }
+
+    // bytes written to a file through a large direct buffer
+    private static class ChannelBytes implements ByteOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER);
+
+        ChannelBytes(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        public void write(byte[] data) throws IOException {
+            for (int off = 0; off < data.length; ) {
+                if (!this.buffer.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(this.buffer.remaining(), data.length-off);
+                this.buffer.put(data, off, length);
+                off += length;
+            }
+        }
+
+        public void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+    }
+
+    // if args[0] is '-', compress; if args[0] is '+', expand
+    // if args[0] is '-f' or '+f', do the same from the file args[1] to the file args[2]
+    // then, optionally, the number of threads (default: number of cores)
+    // and the block size in bytes (default: 900 KB)
+    public static void main(String[] args) throws IOException {
+        boolean files = args[0].endsWith("f");
+        int k = files ? 3 : 1;
+        int threads = args.length > k ? Integer.parseInt(args[k]) : Runtime.getRuntime().availableProcessors();
+        int blockSize = args.length > k+1 ? Integer.parseInt(args[k+1]) : DEFAULT_BLOCK_SIZE;
+        BlockCompressor compressor = new BlockCompressor(blockSize, threads);
+        if (args[0].equals("-")) {
+            compressor.compress();
+        } else if (args[0].equals("+")) {
+            compressor.expand();
+        } else if (args[0].equals("-f")) {
+            compressor.compress(args[1], args[2]);
+        } else if (args[0].equals("+f")) {
+            compressor.expand(args[1], args[2]);
+        } else {
+            throw new IllegalArgumentException();
+        }
+    }
+}
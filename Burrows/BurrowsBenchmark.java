@@ -0,0 +1,133 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Benchmark of the Burrows package over a generated corpus (text, random, repetitive
+// and binary inputs of several sizes, from a fixed seed): throughput of each stage,
+// chars read by the suffix sort, ratio of zeros after move-to-front and output bits per byte.
+// Each stage is run WARMUP times, then the best of ITERATIONS runs is reported.
+public class BurrowsBenchmark {
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final int SEGMENT = 1 << 16;
+    private static final long SEED = 42;
+    private static final String[] KINDS = { "text", "random", "repetitive", "zeros", "binary" };
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "in", "is", "that", "for", "it", "as", "was", "with",
+        "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which",
+        "but", "have", "an", "had", "they", "you", "were", "their", "one", "all", "we",
+        "request", "server", "error", "timeout", "user", "session", "block", "index"
+    };
+
+    // input of the given kind and size, generated from a fixed seed
+    static byte[] generate(String kind, int n) {
+        Random random = new Random(SEED);
+        byte[] data = new byte[n];
+        if (kind.equals("text")) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < n) {
+                sb.append(WORDS[(int) Math.abs(random.nextGaussian()*WORDS.length/3) % WORDS.length]);
+                sb.append(random.nextInt(12) == 0 ? ".\n" : " ");
+            }
+            for (int i = 0; i < n; i++) {
+                data[i] = (byte) sb.charAt(i);
+            }
+        } else if (kind.equals("random")) {
+            random.nextBytes(data);
+        } else if (kind.equals("repetitive")) {
+            // the same log line, with a slowly changing counter
+            byte[] line = "2014-05-01 12:00:00 INFO request served in 12 ms\n".getBytes();
+            for (int i = 0; i < n; i++) {
+                data[i] = line[i % line.length];
+                if (i % line.length == 38) {
+                    data[i] = (byte) ('0'+(i/(line.length*1000)) % 10);
+                }
+            }
+        } else if (kind.equals("binary")) {
+            // little-endian ints of a noisy increasing series
+            int value = 0;
+            for (int i = 0; i+3 < n; i += 4) {
+                value += random.nextInt(16);
+                data[i] = (byte) value;
+                data[i+1] = (byte) (value >>> 8);
+                data[i+2] = (byte) (value >>> 16);
+                data[i+3] = (byte) (value >>> 24);
+            }
+        } else if (!kind.equals("zeros")) {
+            throw new IllegalArgumentException("Unknown kind: "+kind+".");
+        }
+        return data;
+    }
+
+    // throughput in MB/s of n bytes processed in the given nanoseconds
+    private static double mbps(int n, long nanos) {
+        return n/1e6/(nanos/1e9);
+    }
+
+    // stage timings and statistics of one input
+    private static void run(String kind, int n) {
+        byte[] data = generate(kind, n);
+        byte[] t = new byte[n], mtf = new byte[n], back = new byte[n];
+        int[] starts = new int[(n+SEGMENT-1)/SEGMENT];
+        char[] symbols = new char[n];
+        long bwt = Long.MAX_VALUE, mtfTime = Long.MAX_VALUE, huffman = Long.MAX_VALUE, inverse = Long.MAX_VALUE;
+        int count = 0;
+        byte[] coded = null;
+        for (int it = 0; it < WARMUP+ITERATIONS; it++) {
+            long t0 = System.nanoTime();
+            BurrowsWheeler.transform(data, 0, n, t, 0, SEGMENT, starts);
+            long t1 = System.nanoTime();
+            MoveToFront.encode(t, 0, n, mtf, 0);
+            count = MoveToFront.encodeRuns(mtf, 0, n, symbols);
+            long t2 = System.nanoTime();
+            HuffmanCoder.BitWriter bits = new HuffmanCoder.BitWriter();
+            HuffmanCoder.encode(symbols, count, MoveToFront.RUN_ALPHABET, bits);
+            coded = bits.toByteArray();
+            long t3 = System.nanoTime();
+            BurrowsWheeler.inverseTransform(SEGMENT, starts, t, 0, n, back, 0);
+            long t4 = System.nanoTime();
+            if (it >= WARMUP) {
+                bwt = Math.min(bwt, t1-t0);
+                mtfTime = Math.min(mtfTime, t2-t1);
+                huffman = Math.min(huffman, t3-t2);
+                inverse = Math.min(inverse, t4-t3);
+            }
+        }
+        if (!Arrays.equals(data, back)) {
+            throw new IllegalStateException("Round trip failed on "+kind+" ("+n+" bytes).");
+        }
+
+        char[] s = new char[n];
+        for (int i = 0; i < n; i++) {
+            s[i] = (char) (data[i] & 0xff);
+        }
+        CircularSuffixArray csa = new CircularSuffixArray(new String(s));
+        int zeros = 0;
+        for (int i = 0; i < n; i++) {
+            if (mtf[i] == 0) {
+                zeros++;
+            }
+        }
+        StdOut.printf("%-10s %9d %9.1f %9.1f %9.1f %9.1f %12.2f %4s %7.3f %7.3f%n",
+                      kind, n, mbps(n, bwt), mbps(n, mtfTime), mbps(n, huffman), mbps(n, inverse),
+                      (double) csa.charReads()/n, csa.prefixDoubled() ? "yes" : "no",
+                      (double) zeros/n, 8.0*coded.length/n);
+    }
+
+    // args: sizes in bytes (default: 64 KB, 1 MB and 4 MB)
+    public static void main(String[] args) {
+        int[] sizes = { 64*1024, 1 << 20, 4 << 20 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        StdOut.printf("%-10s %9s %9s %9s %9s %9s %12s %4s %7s %7s%n", "input", "bytes",
+                      "BWT MB/s", "MTF MB/s", "Huff MB/s", "iBWT MB/s", "reads/byte", "PD", "zeros", "bits/B");
+        for (int n : sizes) {
+            for (String kind : KINDS) {
+                run(kind, n);
+            }
+        }
+    }
+}
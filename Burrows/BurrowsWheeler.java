@@ -1,61 +1,367 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class BurrowsWheeler {
     private static final int R = 256;
+    private static final int DEFAULT_BLOCK_SIZE = 900*1024;
+    // largest block whose next[] entries can hold a char in their low byte
+    private static final int MAX_PACKED = 1 << 24;
+    // chains followed together by the multi-stream inverse transform
+    private static final int STREAMS = 8;
+    // smallest block (or part of a block) decoded by more than one thread
+    private static final int PARALLEL_CUTOFF = 1 << 22;
 
     // apply Burrows-Wheeler encoding, reading from standard input and writing to standard output
     public static void encode() {
         String s = BinaryStdIn.readString();
+        encodeBlock(s);
+        BinaryStdOut.flush();
+    }
+
+    // apply Burrows-Wheeler decoding, reading from standard input and writing to standard output
+    public static void decode() {
+        if (!BinaryStdIn.isEmpty()) {
+            int first = BinaryStdIn.readInt();
+            String t = BinaryStdIn.readString();
+            decodeBlock(first, t);
+        }
+        BinaryStdOut.flush();
+    }
+
+    // apply Burrows-Wheeler encoding to independent blocks of at most blockSize chars,
+    // each written as its length, its first index and its last column
+    public static void encodeBlocks(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize should be positive (blockSize="+blockSize+").");
+        }
+        char[] block = new char[blockSize];
+        while (!BinaryStdIn.isEmpty()) {
+            int n = 0;
+            while (n < blockSize && !BinaryStdIn.isEmpty()) {
+                block[n++] = BinaryStdIn.readChar();
+            }
+            BinaryStdOut.write(n);
+            encodeBlock(new String(block, 0, n));
+        }
+        BinaryStdOut.flush();
+    }
+
+    // apply Burrows-Wheeler decoding to the output of encodeBlocks
+    public static void decodeBlocks() {
+        while (!BinaryStdIn.isEmpty()) {
+            int n = BinaryStdIn.readInt();
+            int first = BinaryStdIn.readInt();
+            char[] block = new char[n];
+            for (int i = 0; i < n; i++) {
+                block[i] = BinaryStdIn.readChar();
+            }
+            decodeBlock(first, new String(block));
+        }
+        BinaryStdOut.flush();
+    }
+
+    // write first and t[] for s, or nothing if s is empty
+    private static void encodeBlock(String s) {
         int n = s.length();
-        CircularSuffixArray csa = new CircularSuffixArray(s);
-        
-        // Find & write first
-        for (int first = 0; first < csa.length(); first++) {
-            if (csa.index(first) == 0) {
-                BinaryStdOut.write(first);
-                break;
+        if (n == 0) {
+            return;
+        }
+        byte[] t = new byte[n];
+        BinaryStdOut.write(transform(new CircularSuffixArray(s), s, t, 0, n, null));
+        for (int i = 0; i < n; i++) {
+            BinaryStdOut.write(t[i]);
+        }
+    }
+
+    // write the original string given first and t[]
+    private static void decodeBlock(int first, String t) {
+        int n = t.length();
+        byte[] last = new byte[n], block = new byte[n];
+        for (int i = 0; i < n; i++) {
+            last[i] = (byte) t.charAt(i);
+        }
+        inverseTransform(first, last, 0, n, block, 0);
+        for (int i = 0; i < n; i++) {
+            BinaryStdOut.write(block[i]);
+        }
+    }
+
+    // apply Burrows-Wheeler encoding to src, returning first (4 bytes, big-endian) followed by t[],
+    // i.e. the same bytes as encode() (none if src is empty)
+    public static byte[] encode(byte[] src) {
+        ByteBuffer dst = ByteBuffer.allocate(src.length == 0 ? 0 : src.length+4);
+        encode(ByteBuffer.wrap(src), dst);
+        return dst.array();
+    }
+
+    // apply Burrows-Wheeler decoding to the output of encode(byte[])
+    public static byte[] decode(byte[] src) {
+        ByteBuffer dst = ByteBuffer.allocate(Math.max(src.length-4, 0));
+        decode(ByteBuffer.wrap(src), dst);
+        return dst.array();
+    }
+
+    // apply Burrows-Wheeler encoding to the remaining bytes of src, writing first and t[] to dst
+    // (nothing if src is empty); the rotations are sorted in place, in the backing array of a
+    // heap src or through absolute gets, and t[] goes straight into the backing array of a heap dst
+    public static void encode(ByteBuffer src, ByteBuffer dst) {
+        int n = src.remaining();
+        if (n == 0) {
+            return;
+        } else if (dst.remaining() < n+4) {
+            throw new BufferOverflowException();
+        }
+        CharSequence s = new Bytes(src);
+        CircularSuffixArray csa = src.hasArray()
+            ? new CircularSuffixArray(src.array(), src.arrayOffset()+src.position(), n, false)
+            : new CircularSuffixArray(s, false);
+        if (dst.hasArray()) {
+            int first = transform(csa, s, dst.array(), dst.arrayOffset()+dst.position()+4, n, null);
+            dst.putInt(first);
+            dst.position(dst.position()+n);
+        } else {
+            byte[] t = new byte[n];
+            dst.putInt(transform(csa, s, t, 0, n, null));
+            dst.put(t);
+        }
+        src.position(src.position()+n);
+    }
+
+    // apply Burrows-Wheeler decoding to the remaining bytes of src (first and t[], or nothing), writing to dst
+    public static void decode(ByteBuffer src, ByteBuffer dst) {
+        if (!src.hasRemaining()) {
+            return;
+        } else if (src.remaining() < 4) {
+            throw new IllegalArgumentException("src should be empty or hold at least the first index (remaining="+src.remaining()+").");
+        }
+        int first = src.getInt();
+        int n = src.remaining();
+        if (dst.remaining() < n) {
+            throw new BufferOverflowException();
+        }
+        byte[] t;
+        int tOff;
+        if (src.hasArray()) {
+            t = src.array();
+            tOff = src.arrayOffset()+src.position();
+        } else {
+            t = new byte[n];
+            tOff = 0;
+            src.get(t);
+            src.position(src.position()-n);
+        }
+        if (dst.hasArray()) {
+            inverseTransform(first, t, tOff, n, dst.array(), dst.arrayOffset()+dst.position());
+            dst.position(dst.position()+n);
+        } else {
+            byte[] block = new byte[n];
+            inverseTransform(first, t, tOff, n, block, 0);
+            dst.put(block);
+        }
+        src.position(src.position()+n);
+    }
+
+    // Burrows-Wheeler transform of src[srcOff..srcOff+n-1] into t[tOff..tOff+n-1]; returns first
+    static int transform(byte[] src, int srcOff, int n, byte[] t, int tOff) {
+        return transform(src, srcOff, n, t, tOff, n, null);
+    }
+
+    // same as above, also storing in starts[k] the row where the inverse transform
+    // has to start to rebuild src[srcOff+k*segment..], for k < ceil(n/segment)
+    static int transform(byte[] src, int srcOff, int n, byte[] t, int tOff, int segment, int[] starts) {
+        CircularSuffixArray csa = new CircularSuffixArray(src, srcOff, n, false);
+        return transform(csa, new Bytes(ByteBuffer.wrap(src, srcOff, n)), t, tOff, segment, starts);
+    }
+
+    // the remaining bytes of a buffer, read in place as chars 0..255
+    private static class Bytes implements CharSequence {
+        private final ByteBuffer buf;
+        private final int offset;
+        private final int length;
+
+        Bytes(ByteBuffer buf) {
+            this(buf, buf.position(), buf.remaining());
+        }
+
+        private Bytes(ByteBuffer buf, int offset, int length) {
+            this.buf = buf;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return this.length;
+        }
+
+        public char charAt(int i) {
+            if (i < 0 || i >= this.length) {
+                throw new IndexOutOfBoundsException("i should be between 0 and "+(this.length-1)+" (i="+i+").");
             }
+            return (char) (this.buf.get(this.offset+i) & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new Bytes(this.buf, this.offset+start, end-start);
+        }
+
+        public String toString() {
+            return new StringBuilder(this).toString();
         }
+    }
+
+    // Burrows-Wheeler transform of s, whose rotations are sorted by csa, into t[tOff..tOff+s.length()-1];
+    // returns first
+    private static int transform(CircularSuffixArray csa, CharSequence s, byte[] t, int tOff, int segment, int[] starts) {
+        int n = s.length();
+        int first = 0;
         
-        // Write t[]
+        // Find first & compute t[]
         for (int i = 0; i < csa.length(); i++) {
-            BinaryStdOut.write(s.charAt((n-1+csa.index(i)) % n));
+            int shift = csa.index(i);
+            if (shift == 0) {
+                first = i;
+            }
+            t[tOff+i] = (byte) s.charAt((n-1+shift) % n);
+            // The inverse transform outputs t[i] at position shift-1
+            if (starts != null && (n-1+shift) % n % segment == 0) {
+                starts[(n-1+shift) % n / segment] = i;
+            }
         }
-        
-        BinaryStdOut.flush();
+        return first;
     }
 
-    // apply Burrows-Wheeler decoding, reading from standard input and writing to standard output
-    public static void decode() {
-        int first = BinaryStdIn.readInt();
-        String t = BinaryStdIn.readString();
-        int n = t.length();
+    // inverse Burrows-Wheeler transform of first and t[tOff..tOff+n-1] into block[blockOff..blockOff+n-1]
+    static void inverseTransform(int first, byte[] t, int tOff, int n, byte[] block, int blockOff) {
+        if (n == 0) {
+            return;
+        }
+        int[] next = next(t, tOff, n);
+        int start = n <= MAX_PACKED ? next[first] >>> 8 : next[first];
+        decode(next, t, tOff, n, block, blockOff, n, new int[] { start }, 0, 1);
+    }
+
+    // inverse Burrows-Wheeler transform of t[tOff..tOff+n-1] into block[blockOff..blockOff+n-1],
+    // given the starts computed by transform: the chains of the segments are followed in
+    // interleaved groups, so that their cache misses overlap, and large blocks are split
+    // between the threads of the common fork/join pool
+    static void inverseTransform(int segment, int[] starts, byte[] t, int tOff, int n, byte[] block, int blockOff) {
+        if (n == 0) {
+            return;
+        }
+        int[] next = next(t, tOff, n);
+        if (n < PARALLEL_CUTOFF || starts.length <= STREAMS) {
+            decode(next, t, tOff, n, block, blockOff, segment, starts, 0, starts.length);
+        } else {
+            ForkJoinPool.commonPool().invoke(new SegmentsDecoder(next, t, tOff, n, block, blockOff, segment, starts, 0, starts.length));
+        }
+    }
+
+    // next[] computed with key-indexed counting; when n <= MAX_PACKED, t[i] is packed
+    // in the low byte of next[i] so that each step of the inverse transform reads a single int
+    private static int[] next(byte[] t, int tOff, int n) {
         int[] count = new int[R+1], next = new int[n];
         
         // Key-indexed counting
         for (int i = 0; i < n; i++) {
-            count[t.charAt(i)+1]++;
+            count[(t[tOff+i] & 0xff)+1]++;
         }
         for (int i = 1; i < R+1; i++) {
             count[i] += count[i-1];
         }
         
-        // Compute next & write the original string
-        for (int i = 0; i < n; i++) {
-            next[count[t.charAt(i)]++] = i;
+        // Compute next
+        if (n <= MAX_PACKED) {
+            for (int i = 0; i < n; i++) {
+                int c = t[tOff+i] & 0xff;
+                next[count[c]++] |= i << 8;
+                next[i] |= c;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                next[count[t[tOff+i] & 0xff]++] = i;
+            }
+        }
+        return next;
+    }
+
+    // rebuild the segments lo..hi-1, following STREAMS chains at a time
+    private static void decode(int[] next, byte[] t, int tOff, int n, byte[] block, int blockOff,
+                               int segment, int[] starts, int lo, int hi) {
+        boolean packed = n <= MAX_PACKED;
+        int[] row = new int[STREAMS], pos = new int[STREAMS], end = new int[STREAMS];
+        for (int k = lo; k < hi; k += STREAMS) {
+            int streams = Math.min(STREAMS, hi-k);
+            int steps = 0;
+            for (int j = 0; j < streams; j++) {
+                row[j] = starts[k+j];
+                pos[j] = blockOff+(k+j)*segment;
+                end[j] = blockOff+Math.min(n, (k+j+1)*segment);
+                steps = Math.max(steps, end[j]-pos[j]);
+            }
+            for (int step = 0; step < steps; step++) {
+                for (int j = 0; j < streams; j++) {
+                    if (pos[j] < end[j]) {
+                        if (packed) {
+                            int e = next[row[j]];
+                            block[pos[j]++] = (byte) e;
+                            row[j] = e >>> 8;
+                        } else {
+                            block[pos[j]++] = t[tOff+row[j]];
+                            row[j] = next[row[j]];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class SegmentsDecoder extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] next, starts;
+        private final byte[] t, block;
+        private final int tOff, n, blockOff, segment, lo, hi;
+
+        SegmentsDecoder(int[] next, byte[] t, int tOff, int n, byte[] block, int blockOff,
+                        int segment, int[] starts, int lo, int hi) {
+            this.next = next;
+            this.t = t;
+            this.tOff = tOff;
+            this.n = n;
+            this.block = block;
+            this.blockOff = blockOff;
+            this.segment = segment;
+            this.starts = starts;
+            this.lo = lo;
+            this.hi = hi;
         }
-        for (int i = next[first], c = 0; c < n; i = next[i], c++) {
-            BinaryStdOut.write(t.charAt(i));
+
+        protected void compute() {
+            if ((long) (hi-lo)*segment <= PARALLEL_CUTOFF || hi-lo <= STREAMS) {
+                decode(next, t, tOff, n, block, blockOff, segment, starts, lo, hi);
+            } else {
+                int mid = lo+(hi-lo)/2;
+                invokeAll(new SegmentsDecoder(next, t, tOff, n, block, blockOff, segment, starts, lo, mid),
+                          new SegmentsDecoder(next, t, tOff, n, block, blockOff, segment, starts, mid, hi));
+            }
         }
-        
-        BinaryStdOut.flush();
     }
 
-    // if args[0] is '-', apply move-to-front encoding
-    // if args[0] is '+', apply move-to-front decoding
+    // if args[0] is '-', apply Burrows-Wheeler encoding
+    // if args[0] is '+', apply Burrows-Wheeler decoding
+    // if args[0] is '-b', apply block encoding, with an optional block size (in chars) as args[1]
+    // if args[0] is '+b', apply block decoding
     public static void main(String[] args) {
         if (args[0].equals("-")) {
             BurrowsWheeler.encode();
         } else if (args[0].equals("+")) {
             BurrowsWheeler.decode();
+        } else if (args[0].equals("-b")) {
+            int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+            BurrowsWheeler.encodeBlocks(blockSize);
+        } else if (args[0].equals("+b")) {
+            BurrowsWheeler.decodeBlocks();
         }
     }
 }
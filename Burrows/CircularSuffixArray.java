@@ -1,18 +1,69 @@
+import java.util.Arrays;
+
 public class CircularSuffixArray {
     private static final int CUTOFF = 16;
+    // character reads allowed per n*lg(n) before the quicksort is deemed degenerate
+    private static final int BUDGET_FACTOR = 8;
     private int length;
+    // the chars to sort, or bytes[offset..offset+length-1] read as chars 0..255
+    private CharSequence chars;
+    private byte[] bytes;
+    private int offset;
     private int[] index;
+    private long budget;
+    // instrumentation: chars read by the quicksort, and whether prefix doubling was used
+    private long charReads;
+    private boolean prefixDoubled;
 
+    // sort with 3-way radix quicksort, falling back to prefix doubling if the input is degenerate
     public CircularSuffixArray(String s) {
+        this(s, false);
+    }
+
+    // if prefixDoubling is true, always use the O(n log n) prefix doubling construction
+    public CircularSuffixArray(String s, boolean prefixDoubling) {
+        this((CharSequence) s, prefixDoubling);
+    }
+
+    // sort the rotations of any sequence of chars, such as a view of a buffer of bytes
+    CircularSuffixArray(CharSequence s, boolean prefixDoubling) {
         if (s == null) {
             throw new NullPointerException();
         }
-        this.length = s.length();
+        this.chars = s;
+        sort(s.length(), prefixDoubling);
+    }
+
+    // sort the rotations of a[offset..offset+n-1], read in place as chars 0..255
+    CircularSuffixArray(byte[] a, int offset, int n, boolean prefixDoubling) {
+        if (a == null) {
+            throw new NullPointerException();
+        }
+        this.bytes = a;
+        this.offset = offset;
+        sort(n, prefixDoubling);
+    }
+
+    private void sort(int n, boolean prefixDoubling) {
+        this.length = n;
         this.index = new int[this.length];
-        for (int i = 0; i < this.length; i++) {
-            index[i] = i;
+        if (!prefixDoubling) {
+            for (int i = 0; i < this.length; i++) {
+                index[i] = i;
+            }
+            long initial = (long) BUDGET_FACTOR*this.length*(lg(this.length)+1);
+            this.budget = initial;
+            threeWayquickSort(0, this.length-1, 0);
+            this.charReads = initial-this.budget;
+        }
+        // Long repeated substrings make the quicksort quadratic: give up and use prefix doubling
+        if (prefixDoubling || this.budget < 0) {
+            prefixDoubling();
+            this.prefixDoubled = true;
         }
-        threeWayquickSort(s, 0, this.length-1, 0);
+        // the index does not keep the input reachable
+        this.chars = null;
+        this.bytes = null;
     }
 
     public int length() {
@@ -26,14 +77,34 @@ public class CircularSuffixArray {
         return this.index[i];
     }
 
-    private char charAt(String s, int shift, int start) {
-        return s.charAt((start+shift) % this.length);
+    // number of chars read by the 3-way radix quicksort (its comparison cost)
+    long charReads() {
+        return this.charReads;
+    }
+
+    // was the array built (or finished) by prefix doubling?
+    boolean prefixDoubled() {
+        return this.prefixDoubled;
     }
 
-    private boolean isLess(String s, int i, int j, int pos) {
+    private static int lg(int n) {
+        return 31-Integer.numberOfLeadingZeros(Math.max(n, 1));
+    }
+
+    private char charAt(int shift, int start) {
+        this.budget--;
+        return at((start+shift) % this.length);
+    }
+
+    // char at position i, for 0 <= i < length
+    private char at(int i) {
+        return this.bytes != null ? (char) (this.bytes[this.offset+i] & 0xff) : this.chars.charAt(i);
+    }
+
+    private boolean isLess(int i, int j, int pos) {
         int shifti = index[i], shiftj = index[j];
-        for (int k = pos; k < this.length; k++) {
-            int ival = charAt(s, shifti, k), jval = charAt(s, shiftj, k);
+        for (int k = pos; k < this.length && this.budget >= 0; k++) {
+            int ival = charAt(shifti, k), jval = charAt(shiftj, k);
             if (ival < jval) {
                 return true;
             }
@@ -50,22 +121,26 @@ public class CircularSuffixArray {
         index[i] = tmp;
     }
 
-    private void insertionSort(String s, int lo, int hi, int pos) {
-        for (int i = lo; i <= hi; i++) {
-            for (int j = i; j > lo && isLess(s, j, j-1, pos); j--) {
+    private void insertionSort(int lo, int hi, int pos) {
+        for (int i = lo; i <= hi && this.budget >= 0; i++) {
+            for (int j = i; j > lo && isLess(j, j-1, pos); j--) {
                 exch(j, j - 1);
             }
         }
     }
 
-    private void threeWayquickSort(String s, int lo, int hi, int pos) {
-        if (hi-lo <= CUTOFF) {
-            insertionSort(s, lo, hi, pos);
-        } else {
+    private void threeWayquickSort(int lo, int hi, int pos) {
+        while (true) {
+            if (this.budget < 0) {
+                return;
+            } else if (hi-lo <= CUTOFF) {
+                insertionSort(lo, hi, pos);
+                return;
+            }
             // exchange
-            int lt = lo, gt = hi, piv = charAt(s, index[lo], pos), eq = lo+1;
+            int lt = lo, gt = hi, piv = charAt(index[lo], pos), eq = lo+1;
             while (eq <= gt) {
-                int t = charAt(s, index[eq], pos);
+                int t = charAt(index[eq], pos);
                 if (t < piv) {
                     exch(lt++, eq++);
                 } else if (t > piv) {
@@ -75,12 +150,78 @@ public class CircularSuffixArray {
                 }
             }
 
-            // recursion
-            threeWayquickSort(s, lo, lt-1, pos);
-            if (piv >= 0) {
-                threeWayquickSort(s, lt, gt, pos+1);
+            // recursion, except on the middle partition: its depth is the length of the
+            // common prefixes, which would overflow the stack on repetitive inputs
+            threeWayquickSort(lo, lt-1, pos);
+            threeWayquickSort(gt+1, hi, pos);
+            lo = lt;
+            hi = gt;
+            pos++;
+        }
+    }
+
+    // Sort the rotations by their first 2^k characters for k = 0, 1, 2, ... using the
+    // ranks of the previous round as keys, until all ranks are distinct or k >= lg(n)
+    private void prefixDoubling() {
+        int n = this.length;
+        if (n == 0) {
+            return;
+        }
+        int alphabet = 0;
+        for (int i = 0; i < n; i++) {
+            alphabet = Math.max(alphabet, at(i)+1);
+        }
+        int[] rank = new int[n], tmp = new int[n], count = new int[Math.max(alphabet, n)+1];
+
+        // Key-indexed counting on the first character
+        for (int i = 0; i < n; i++) {
+            count[at(i)+1]++;
+        }
+        for (int r = 1; r <= alphabet; r++) {
+            count[r] += count[r-1];
+        }
+        for (int i = 0; i < n; i++) {
+            index[count[at(i)]++] = i;
+        }
+        int classes = 1;
+        rank[index[0]] = 0;
+        for (int i = 1; i < n; i++) {
+            if (at(index[i]) != at(index[i-1])) {
+                classes++;
+            }
+            rank[index[i]] = classes-1;
+        }
+
+        for (int h = 1; h < n && classes < n; h *= 2) {
+            // index[] is sorted by the first h characters, so shifting it by h
+            // gives the rotations sorted by their second half
+            for (int i = 0; i < n; i++) {
+                tmp[i] = (index[i]-h+n) % n;
+            }
+            // Stable key-indexed counting on the first half
+            Arrays.fill(count, 0, classes+1, 0);
+            for (int i = 0; i < n; i++) {
+                count[rank[tmp[i]]+1]++;
+            }
+            for (int r = 1; r <= classes; r++) {
+                count[r] += count[r-1];
+            }
+            for (int i = 0; i < n; i++) {
+                index[count[rank[tmp[i]]]++] = tmp[i];
+            }
+            // Compute the new ranks, reusing tmp[]
+            classes = 1;
+            tmp[index[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int cur = index[i], prev = index[i-1];
+                if (rank[cur] != rank[prev] || rank[(cur+h) % n] != rank[(prev+h) % n]) {
+                    classes++;
+                }
+                tmp[cur] = classes-1;
             }
-            threeWayquickSort(s, gt+1, hi, pos);
+            int[] swap = rank;
+            rank = tmp;
+            tmp = swap;
         }
     }
-}
\ No newline at end of file
+}
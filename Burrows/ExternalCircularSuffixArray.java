@@ -0,0 +1,490 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+// Circular suffix array of a file that may not fit in memory: the file is mapped
+// read-only, and the rotations are distributed into partitions by their first two
+// bytes, in one pass over the file that writes them to the index file in partition
+// order. Each partition is then read back and sorted with at most `memory` positions
+// on the heap; a partition larger than that is sorted in runs spilled to temporary
+// files, which are then merged through memory-mapped I/O. The sorted positions
+// overwrite the partitions in the index file, which index() reads through memory mapping.
+// As in CircularSuffixArray, the quicksorts and merges share a budget of character
+// reads: once it is exhausted, the rotations are sorted again by prefix doubling. Its
+// ranks are kept in memory-mapped temporary files, and each round sorts runs of at most
+// `memory` positions that are spilled with their pairs of ranks (rank[i], rank[i+h]),
+// then merged on these pairs while the ranks of the next round are written.
+// Each pass over the positions reads the file or the ranks at random, one page per
+// position in the worst case, so the input should fit in the page cache for speed.
+// Up to the order of equal rotations (whose positions are interchangeable),
+// index() returns the same results as CircularSuffixArray.
+public class ExternalCircularSuffixArray {
+    private static final int CUTOFF = 16;
+    // character reads allowed per n*lg(n) before the quicksort is deemed degenerate
+    private static final int BUDGET_FACTOR = 8;
+    private static final int BUCKETS = 1 << 16;
+    // ints per mapped window of the index file
+    private static final int WINDOW = 1 << 28;
+    private static final int OUTPUT_BUFFER = 1 << 20;
+    private final int length;
+    private final MappedByteBuffer text;
+    private final RandomAccessFile indexFile;
+    private IntBuffer[] windows;
+    private long budget;
+
+    // sort the rotations of the file input into the index file output,
+    // keeping at most memory positions on the heap
+    public ExternalCircularSuffixArray(String input, String output, int memory) throws IOException {
+        this(input, output, memory, false);
+    }
+
+    // if prefixDoubling is true, always use the prefix doubling construction
+    public ExternalCircularSuffixArray(String input, String output, int memory, boolean prefixDoubling) throws IOException {
+        // check arguments
+        if (input == null) {
+            throw new NullPointerException("input should not be null.");
+        } else if (output == null) {
+            throw new NullPointerException("output should not be null.");
+        } else if (memory <= 0) {
+            throw new IllegalArgumentException("memory should be positive (memory="+memory+").");
+        }
+        RandomAccessFile in = new RandomAccessFile(input, "r");
+        try {
+            if (in.length() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("input should be at most "+Integer.MAX_VALUE+" bytes long.");
+            }
+            this.length = (int) in.length();
+            this.text = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.length);
+        } finally {
+            in.close(); // the mapping stays valid
+        }
+        this.indexFile = new RandomAccessFile(output, "rw");
+        this.indexFile.setLength(0);
+        sort(memory, prefixDoubling);
+        this.windows = mapInts(this.indexFile.getChannel(), FileChannel.MapMode.READ_ONLY, this.length);
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public int index(int i) {
+        if (i < 0 || i >= length()) {
+            throw new IndexOutOfBoundsException(" "+i);
+        }
+        return get(this.windows, i);
+    }
+
+    public void close() throws IOException {
+        this.indexFile.close();
+    }
+
+    private void sort(int memory, boolean prefixDoubling) throws IOException {
+        FileChannel out = this.indexFile.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER);
+        int[] positions = new int[Math.min(memory, Math.max(this.length, 1))];
+        this.budget = prefixDoubling ? -1 : (long) BUDGET_FACTOR*this.length*(lg(this.length)+1);
+        if (this.budget >= 0) {
+            long[] start = distribute(out);
+            IntBuffer[] order = mapInts(out, FileChannel.MapMode.READ_ONLY, this.length);
+            // Consecutive buckets are grouped as long as they fit in memory; the sorted
+            // groups are written in order, each one over the positions it was read from
+            for (int lo = 0; lo < BUCKETS && this.budget >= 0; ) {
+                int hi = lo+1;
+                while (hi < BUCKETS && start[hi+1]-start[lo] <= positions.length) {
+                    hi++;
+                }
+                long size = start[hi]-start[lo];
+                if (size <= positions.length) {
+                    read(order, start[lo], positions, (int) size);
+                    threeWayquickSort(positions, 0, (int) size-1, 0);
+                    write(out, buffer, positions, (int) size);
+                } else {
+                    sortRuns(order, start[lo], size, positions, out, buffer);
+                }
+                lo = hi;
+            }
+            flush(out, buffer);
+        }
+        // Long repeated substrings make the quicksort quadratic: give up and use prefix doubling
+        if (this.budget < 0) {
+            prefixDoubling(positions, out, buffer);
+        }
+    }
+
+    // Sort the rotations by their first 2^k bytes for k = 1, 2, 3, ... as CircularSuffixArray
+    // does, with the index file as the order and two mapped files as the ranks of the previous
+    // and of the current round. A round cuts the order into runs of positions[].length
+    // positions, sorts each run by (rank[i], rank[i+h]), and merges the runs on the same pairs.
+    private void prefixDoubling(int[] positions, FileChannel out, ByteBuffer buffer) throws IOException {
+        final int n = this.length;
+        this.indexFile.setLength(0);
+        if (n == 0) {
+            return;
+        }
+        File[] files = new File[2];
+        RandomAccessFile[] rankFiles = new RandomAccessFile[2];
+        try {
+            IntBuffer[][] ranks = new IntBuffer[2][];
+            for (int f = 0; f < 2; f++) {
+                files[f] = File.createTempFile("csa-rank", ".bin");
+                rankFiles[f] = new RandomAccessFile(files[f], "rw");
+                ranks[f] = mapInts(rankFiles[f].getChannel(), FileChannel.MapMode.READ_WRITE, n);
+            }
+
+            // The first ranks are the buckets of the first two bytes
+            long[] start = distribute(out);
+            int classes = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                if (start[b+1] > start[b]) {
+                    classes++;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                put(ranks[0], i, bucket(i));
+            }
+
+            // Runs of (rank[i], rank[i+h], i), mapped whole
+            long[] keys = new long[Math.min(positions.length, Integer.MAX_VALUE/12)];
+            int r = 0;
+            for (long h = 2; h < n && classes < n; h *= 2, r = 1-r) {
+                IntBuffer[] rank = ranks[r];
+                // The order is sorted by the first ranks, so a run only sorts its positions
+                // with the same first rank by their second rank, packed above the position
+                IntBuffer[] order = mapInts(out, FileChannel.MapMode.READ_ONLY, n);
+                File[] runs = new File[0];
+                try {
+                    for (long from = 0; from < n; from += keys.length) {
+                        int m = (int) Math.min(keys.length, n-from);
+                        for (int k = 0; k < m; k++) {
+                            int p = get(order, from+k);
+                            keys[k] = (long) get(rank, (p+h) % n) << 32 | p;
+                        }
+                        runs = Arrays.copyOf(runs, runs.length+1);
+                        runs[runs.length-1] = File.createTempFile("csa-run", ".bin");
+                        RandomAccessFile run = new RandomAccessFile(runs[runs.length-1], "rw");
+                        try {
+                            FileChannel channel = run.getChannel();
+                            for (int lo = 0, hi; lo < m; lo = hi) {
+                                int first = get(rank, (int) keys[lo]);
+                                for (hi = lo+1; hi < m && get(rank, (int) keys[hi]) == first; hi++) {
+                                }
+                                Arrays.sort(keys, lo, hi);
+                                for (int k = lo; k < hi; k++) {
+                                    putInt(channel, buffer, first);
+                                    putInt(channel, buffer, (int) (keys[k] >>> 32));
+                                    putInt(channel, buffer, (int) keys[k]);
+                                }
+                            }
+                            flush(channel, buffer);
+                        } finally {
+                            run.close();
+                        }
+                    }
+                    out.position(0);
+                    classes = mergePairs(runs, out, buffer, ranks[1-r]);
+                    flush(out, buffer);
+                } finally {
+                    for (File run : runs) {
+                        run.delete();
+                    }
+                }
+            }
+        } finally {
+            for (int f = 0; f < 2; f++) {
+                if (rankFiles[f] != null) {
+                    rankFiles[f].close();
+                }
+                if (files[f] != null) {
+                    files[f].delete();
+                }
+            }
+        }
+    }
+
+    // k-way merge of runs of (rank[i], rank[i+h], i) on their pairs of ranks, writing
+    // the positions i to out and their rank among the distinct pairs to next[i];
+    // returns the number of distinct pairs
+    private static int mergePairs(File[] files, FileChannel out, ByteBuffer buffer, IntBuffer[] next) throws IOException {
+        IntBuffer[] runs = new IntBuffer[files.length];
+        long[] pair = new long[files.length]; // pair of ranks at the head of each run
+        int[] heap = new int[files.length];
+        int size = 0;
+        for (int r = 0; r < files.length; r++) {
+            RandomAccessFile run = new RandomAccessFile(files[r], "r");
+            try {
+                runs[r] = run.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, run.length()).asIntBuffer();
+            } finally {
+                run.close();
+            }
+            if (runs[r].hasRemaining()) {
+                pair[r] = (long) runs[r].get() << 32 | runs[r].get();
+                heap[size++] = r;
+            }
+        }
+        for (int k = size/2-1; k >= 0; k--) {
+            sink(heap, size, pair, k);
+        }
+        int classes = 0;
+        long previous = -1;
+        while (size > 0) {
+            int r = heap[0];
+            int p = runs[r].get();
+            if (pair[r] != previous) {
+                classes++;
+                previous = pair[r];
+            }
+            put(next, p, classes-1);
+            putInt(out, buffer, p);
+            if (runs[r].hasRemaining()) {
+                pair[r] = (long) runs[r].get() << 32 | runs[r].get();
+            } else {
+                heap[0] = heap[--size];
+            }
+            sink(heap, size, pair, 0);
+        }
+        return classes;
+    }
+
+    // restore the order of the binary heap of runs heap[0..size-1] by their pairs,
+    // where heap[k] may be larger than its children
+    private static void sink(int[] heap, int size, long[] pair, int k) {
+        while (2*k+1 < size) {
+            int j = 2*k+1;
+            if (j+1 < size && pair[heap[j+1]] < pair[heap[j]]) {
+                j++;
+            }
+            if (pair[heap[k]] <= pair[heap[j]]) {
+                break;
+            }
+            int tmp = heap[k];
+            heap[k] = heap[j];
+            heap[j] = tmp;
+            k = j;
+        }
+    }
+
+    // sort the bucket order[from..from+size-1], larger than positions[], in runs that are then merged
+    private void sortRuns(IntBuffer[] order, long from, long size, int[] positions, FileChannel out, ByteBuffer buffer) throws IOException {
+        int runs = 0;
+        File[] files = new File[0];
+        try {
+            for (long k = 0; k < size; k += positions.length) {
+                int n = (int) Math.min(positions.length, size-k);
+                read(order, from+k, positions, n);
+                threeWayquickSort(positions, 0, n-1, 0);
+                if (this.budget < 0) {
+                    return;
+                }
+                files = Arrays.copyOf(files, runs+1);
+                files[runs++] = spill(positions, n);
+            }
+            merge(files, out, buffer, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return compareRotations(a, b, 0);
+                }
+            });
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // write positions[0..n-1] to a new temporary file
+    private File spill(int[] positions, int n) throws IOException {
+        File file = File.createTempFile("csa-run", ".bin");
+        RandomAccessFile run = new RandomAccessFile(file, "rw");
+        try {
+            ByteBuffer runBuffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER);
+            write(run.getChannel(), runBuffer, positions, n);
+            flush(run.getChannel(), runBuffer);
+        } finally {
+            run.close();
+        }
+        return file;
+    }
+
+    // k-way merge of the runs of positions, sorted by order
+    private void merge(File[] files, FileChannel out, ByteBuffer buffer, final Comparator<Integer> order) throws IOException {
+        final IntBuffer[] runs = new IntBuffer[files.length];
+        for (int r = 0; r < files.length; r++) {
+            RandomAccessFile run = new RandomAccessFile(files[r], "r");
+            try {
+                runs[r] = run.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, run.length()).asIntBuffer();
+            } finally {
+                run.close();
+            }
+        }
+        PriorityQueue<Integer> pq = new PriorityQueue<Integer>(Math.max(files.length, 1), new Comparator<Integer>() {
+            public int compare(Integer r, Integer s) {
+                return order.compare(runs[r].get(runs[r].position()), runs[s].get(runs[s].position()));
+            }
+        });
+        for (int r = 0; r < runs.length; r++) {
+            if (runs[r].hasRemaining()) {
+                pq.add(r);
+            }
+        }
+        int[] one = new int[1];
+        while (!pq.isEmpty()) {
+            int r = pq.poll();
+            one[0] = runs[r].get();
+            write(out, buffer, one, 1);
+            if (runs[r].hasRemaining()) {
+                pq.add(r);
+            }
+        }
+    }
+
+    // write the rotations to the index file in the order of their buckets, by key-indexed
+    // counting; returns the index of the first rotation of each bucket, followed by length
+    private long[] distribute(FileChannel out) throws IOException {
+        long[] start = new long[BUCKETS+1];
+        for (int i = 0; i < this.length; i++) {
+            start[bucket(i)+1]++;
+        }
+        for (int b = 0; b < BUCKETS; b++) {
+            start[b+1] += start[b];
+        }
+        long[] next = Arrays.copyOf(start, BUCKETS);
+        IntBuffer[] order = mapInts(out, FileChannel.MapMode.READ_WRITE, this.length);
+        for (int i = 0; i < this.length; i++) {
+            put(order, next[bucket(i)]++, i);
+        }
+        return start;
+    }
+
+    // store order[from..from+n-1] in positions[0..n-1]
+    private static void read(IntBuffer[] order, long from, int[] positions, int n) {
+        for (int k = 0; k < n; k++) {
+            positions[k] = get(order, from+k);
+        }
+    }
+
+    // first two chars of the rotation at i
+    private int bucket(int i) {
+        return (this.text.get(i) & 0xff) << 8 | this.text.get((int) ((i+1L) % this.length)) & 0xff;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer, int[] positions, int n) throws IOException {
+        for (int k = 0; k < n; k++) {
+            putInt(out, buffer, positions[k]);
+        }
+    }
+
+    private static void putInt(FileChannel out, ByteBuffer buffer, int value) throws IOException {
+        if (buffer.remaining() < 4) {
+            flush(out, buffer);
+        }
+        buffer.putInt(value);
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // map the first n ints of channel, in windows of WINDOW ints
+    private static IntBuffer[] mapInts(FileChannel channel, FileChannel.MapMode mode, long n) throws IOException {
+        IntBuffer[] windows = new IntBuffer[(int) ((n+WINDOW-1)/WINDOW)];
+        for (int w = 0; w < windows.length; w++) {
+            long start = 4L*w*WINDOW;
+            long size = 4L*Math.min(WINDOW, n-(long) w*WINDOW);
+            windows[w] = channel.map(mode, start, size).asIntBuffer();
+        }
+        return windows;
+    }
+
+    private static int get(IntBuffer[] windows, long i) {
+        return windows[(int) (i/WINDOW)].get((int) (i % WINDOW));
+    }
+
+    private static void put(IntBuffer[] windows, long i, int value) {
+        windows[(int) (i/WINDOW)].put((int) (i % WINDOW), value);
+    }
+
+    private static int lg(int n) {
+        return 31-Integer.numberOfLeadingZeros(Math.max(n, 1));
+    }
+
+    private int charAt(int shift, int start) {
+        this.budget--;
+        long pos = ((long) shift+start) % this.length;
+        return this.text.get((int) pos) & 0xff;
+    }
+
+    private int compareRotations(int a, int b, int pos) {
+        for (int k = pos; k < this.length && this.budget >= 0; k++) {
+            int ca = charAt(a, k), cb = charAt(b, k);
+            if (ca != cb) {
+                return ca-cb;
+            }
+        }
+        return 0;
+    }
+
+    private static void exch(int[] index, int i, int j) {
+        int tmp = index[j];
+        index[j] = index[i];
+        index[i] = tmp;
+    }
+
+    private void insertionSort(int[] index, int lo, int hi, int pos) {
+        for (int i = lo; i <= hi && this.budget >= 0; i++) {
+            for (int j = i; j > lo && compareRotations(index[j], index[j-1], pos) < 0; j--) {
+                exch(index, j, j-1);
+            }
+        }
+    }
+
+    private void threeWayquickSort(int[] index, int lo, int hi, int pos) {
+        while (true) {
+            if (this.budget < 0) {
+                return;
+            } else if (hi-lo <= CUTOFF || pos >= this.length) {
+                if (pos < this.length) {
+                    insertionSort(index, lo, hi, pos);
+                }
+                return;
+            }
+            // exchange
+            int lt = lo, gt = hi, piv = charAt(index[lo], pos), eq = lo+1;
+            while (eq <= gt) {
+                int t = charAt(index[eq], pos);
+                if (t < piv) {
+                    exch(index, lt++, eq++);
+                } else if (t > piv) {
+                    exch(index, eq, gt--);
+                } else {
+                    eq++;
+                }
+            }
+
+            // recursion, except on the middle partition, whose depth follows the common prefixes
+            threeWayquickSort(index, lo, lt-1, pos);
+            threeWayquickSort(index, gt+1, hi, pos);
+            lo = lt;
+            hi = gt;
+            pos++;
+        }
+    }
+
+    // sort the rotations of the file args[0] into the index file args[1],
+    // with at most args[2] positions in memory
+    public static void main(String[] args) throws IOException {
+        ExternalCircularSuffixArray csa = new ExternalCircularSuffixArray(args[0], args[1], Integer.parseInt(args[2]));
+        StdOut.println(csa.length()+" rotations sorted");
+        csa.close();
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+// FM-index over the last column t[] of a Burrows-Wheeler transform: counts and
+// locates the occurrences of a pattern in the circular string without rebuilding it.
+// The number of occurrences of each char of t[] before a row is stored every STEP rows,
+// as a char relative to the count stored every SUPER_STEP rows, and only for the chars
+// that occur in t[]: about 2*sigma/STEP bytes per row for sigma distinct chars.
+// Every rate positions of the string, its row is sampled: a larger rate uses less
+// memory and makes locate slower.
+public class FMIndex {
+    private static final int R = 256;
+    private static final int STEP = 64;
+    private static final int SUPER_STEP = 1 << 16;
+    private final int n;
+    private final int rate;
+    private final byte[] t;
+    private final int[] first = new int[R+1]; // rows starting with a char less than c
+    // rank of each char among the distinct chars of t[], or -1 if it does not occur
+    private final int[] symbol = new int[R];
+    private final int sigma;
+    // occurrences of the symbol s before the row i*SUPER_STEP at superOcc[i*sigma+s],
+    // and before the row i*STEP, minus the previous of those, at occ[i*sigma+s]
+    private final int[] superOcc;
+    private final char[] occ;
+    // sampled rows (one bit per row), with the number of set bits before each word
+    private final long[] marked;
+    private final int[] markedBefore;
+    // position of each sampled row, in row order, and row of each position multiple of rate
+    private final int[] positions;
+    private final int[] rows;
+    // length of the smallest period of the string, and one period when it is less than n
+    private final int period;
+    private final byte[] unit;
+
+    // index the last column t[] whose original string is the rotation at row start,
+    // sampling the row of every rate positions
+    public FMIndex(byte[] t, int start, int rate) {
+        // check arguments
+        if (t == null) {
+            throw new NullPointerException("t should not be null.");
+        } else if (rate <= 0) {
+            throw new IllegalArgumentException("rate should be positive (rate="+rate+").");
+        } else if (t.length > 0 && (start < 0 || start >= t.length)) {
+            throw new IndexOutOfBoundsException("start should be between 0 and "+(t.length-1)+" (start="+start+").");
+        }
+        this.n = t.length;
+        this.rate = rate;
+        this.t = t;
+
+        // Key-indexed counting, then a checkpoint every STEP rows for the chars of t[]
+        int[] count = new int[R];
+        for (int i = 0; i < n; i++) {
+            count[t[i] & 0xff]++;
+        }
+        int sigma = 0;
+        for (int c = 0; c < R; c++) {
+            first[c+1] = first[c]+count[c];
+            symbol[c] = count[c] > 0 ? sigma++ : -1;
+        }
+        this.sigma = sigma;
+        this.superOcc = new int[(n/SUPER_STEP+1)*sigma];
+        this.occ = new char[(n/STEP+1)*sigma];
+        int[] running = new int[sigma];
+        for (int i = 0; i <= n; i++) {
+            if (i % STEP == 0) {
+                int base = (i/SUPER_STEP)*sigma;
+                if (i % SUPER_STEP == 0) {
+                    System.arraycopy(running, 0, superOcc, base, sigma);
+                }
+                for (int s = 0; s < sigma; s++) {
+                    occ[(i/STEP)*sigma+s] = (char) (running[s]-superOcc[base+s]);
+                }
+            }
+            if (i < n) {
+                running[symbol[t[i] & 0xff]]++;
+            }
+        }
+
+        // Walk the string backwards with LF, from the rotation at position 0; if the walk comes
+        // back to start before n steps, the string is a power of a shorter string
+        this.marked = new long[(n+63)/64];
+        this.markedBefore = new int[marked.length];
+        this.rows = new int[(n+rate-1)/rate];
+        byte[] chars = new byte[n];
+        int steps = 0;
+        for (int row = start, pos = 0; steps < n; steps++) {
+            if (pos % rate == 0) {
+                rows[pos/rate] = row;
+                marked[row >>> 6] |= 1L << row;
+            }
+            pos = (pos-1+n) % n;
+            chars[pos] = t[row];
+            row = lf(row);
+            if (row == start) {
+                steps++;
+                break;
+            }
+        }
+        this.period = steps;
+        this.unit = period < n ? Arrays.copyOfRange(chars, n-period, n) : null;
+
+        for (int w = 1; w < marked.length; w++) {
+            markedBefore[w] = markedBefore[w-1]+Long.bitCount(marked[w-1]);
+        }
+        this.positions = new int[rows.length];
+        for (int k = 0; k < rows.length && period == n; k++) {
+            positions[markedRank(rows[k])] = k*rate;
+        }
+    }
+
+    // length of the indexed string
+    public int length() {
+        return this.n;
+    }
+
+    // number of occurrences of pattern in the circular string
+    public int count(byte[] pattern) {
+        int[] range = range(pattern);
+        return range[1]-range[0];
+    }
+
+    // sorted positions of the occurrences of pattern in the circular string
+    public int[] locate(byte[] pattern) {
+        if (period < n) {
+            return locatePeriodic(pattern);
+        }
+        int[] range = range(pattern);
+        int[] result = new int[range[1]-range[0]];
+        for (int i = range[0]; i < range[1]; i++) {
+            int row = i, steps = 0;
+            while (!isMarked(row)) {
+                row = lf(row);
+                steps++;
+            }
+            result[i-range[0]] = (positions[markedRank(row)]+steps) % n;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // the length chars of the circular string starting at position from
+    public byte[] extract(int from, int length) {
+        // check arguments
+        if (from < 0 || from >= n) {
+            throw new IndexOutOfBoundsException("from should be between 0 and "+(n-1)+" (from="+from+").");
+        } else if (length < 0) {
+            throw new IllegalArgumentException("length should not be negative (length="+length+").");
+        }
+        byte[] result = new byte[length];
+        if (period < n) {
+            for (int k = 0; k < length; k++) {
+                result[k] = unit[(from+k) % period];
+            }
+            return result;
+        }
+        // Walk backwards from the first sampled position at or after from+length
+        long end = (long) from+length, q = end;
+        while ((q % n) % rate != 0) {
+            q++;
+        }
+        int row = rows[(int) (q % n)/rate];
+        for (long pos = q-1; pos >= from; pos--) {
+            if (pos < end) {
+                result[(int) (pos-from)] = t[row];
+            }
+            row = lf(row);
+        }
+        return result;
+    }
+
+    // rows whose rotation starts with pattern, by backward search
+    private int[] range(byte[] pattern) {
+        int lo = 0, hi = n;
+        for (int k = pattern.length-1; k >= 0 && lo < hi; k--) {
+            int c = pattern[k] & 0xff;
+            lo = first[c]+rank(c, lo);
+            hi = first[c]+rank(c, hi);
+        }
+        return new int[] { lo, Math.max(lo, hi) };
+    }
+
+    // occurrences of the period in the circular unit, repeated n/period times
+    private int[] locatePeriodic(byte[] pattern) {
+        int[] matches = new int[period];
+        int m = 0;
+        for (int q = 0; q < period; q++) {
+            int k = 0;
+            while (k < pattern.length && pattern[k] == unit[(q+k) % period]) {
+                k++;
+            }
+            if (k == pattern.length) {
+                matches[m++] = q;
+            }
+        }
+        int[] result = new int[m*(n/period)];
+        for (int copy = 0, k = 0; copy < n/period; copy++) {
+            for (int j = 0; j < m; j++) {
+                result[k++] = copy*period+matches[j];
+            }
+        }
+        return result;
+    }
+
+    // number of occurrences of c in t[0..i-1]
+    private int rank(int c, int i) {
+        int s = symbol[c];
+        if (s < 0) {
+            return 0;
+        }
+        int r = superOcc[(i/SUPER_STEP)*sigma+s]+occ[(i/STEP)*sigma+s];
+        for (int k = (i/STEP)*STEP; k < i; k++) {
+            if ((t[k] & 0xff) == c) {
+                r++;
+            }
+        }
+        return r;
+    }
+
+    // row of the rotation starting one position before the rotation at row i
+    private int lf(int i) {
+        int c = t[i] & 0xff;
+        return first[c]+rank(c, i);
+    }
+
+    private boolean isMarked(int row) {
+        return (marked[row >>> 6] & (1L << row)) != 0;
+    }
+
+    // number of marked rows before row
+    private int markedRank(int row) {
+        return markedBefore[row >>> 6]+Long.bitCount(marked[row >>> 6] & ((1L << row)-1));
+    }
+
+    // row of the rotation at position 0, given the row where the inverse transform starts
+    // (the rotation at position 1), as stored by BurrowsWheeler.transform
+    static int rowOfFirst(byte[] t, int start) {
+        int c = t[start] & 0xff, before = 0, less = 0;
+        for (int i = 0; i < t.length; i++) {
+            int d = t[i] & 0xff;
+            if (d < c) {
+                less++;
+            } else if (d == c && i < start) {
+                before++;
+            }
+        }
+        return less+before;
+    }
+}
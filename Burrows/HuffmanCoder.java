@@ -0,0 +1,309 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+// Multi-table canonical Huffman coding of symbols 0..alphabet-1, as in bzip2:
+// the symbols are cut in groups of GROUP, and each group is coded with the
+// table (among up to MAX_TABLES) that gives it the fewest bits
+class HuffmanCoder {
+    private static final int GROUP = 50;
+    private static final int MAX_TABLES = 6;
+    private static final int MAX_LENGTH = 20;
+    private static final int LENGTH_BITS = 5;
+    private static final int SELECTOR_BITS = 3;
+    // rounds of assigning groups to tables then rebuilding the tables
+    private static final int ITERATIONS = 4;
+
+    // write symbols[0..count-1] to out: the count, the code lengths of each table,
+    // the table selected for each group and the codes
+    static void encode(char[] symbols, int count, int alphabet, BitWriter out) {
+        int groups = (count+GROUP-1)/GROUP;
+        int tables = tables(count);
+        int[][] lengths = new int[tables][alphabet];
+        int[] selectors = new int[groups];
+
+        // Initial tables: each one is cheap on a slice of the symbols sorted by value,
+        // with slices of roughly equal total frequency
+        int[] freq = new int[alphabet];
+        for (int k = 0; k < count; k++) {
+            freq[symbols[k]]++;
+        }
+        for (int t = 0, s = 0, remaining = count; t < tables; t++) {
+            int target = remaining/(tables-t), sum = 0;
+            int lo = s;
+            while (s < alphabet && (sum < target || s == lo)) {
+                sum += freq[s++];
+            }
+            remaining -= sum;
+            for (int c = 0; c < alphabet; c++) {
+                lengths[t][c] = lo <= c && c < s ? 0 : MAX_LENGTH;
+            }
+        }
+
+        for (int it = 0; it < ITERATIONS; it++) {
+            int[][] tableFreq = new int[tables][alphabet];
+            for (int g = 0; g < groups; g++) {
+                int lo = g*GROUP, hi = Math.min(count, lo+GROUP);
+                selectors[g] = cheapest(symbols, lo, hi, lengths);
+                for (int k = lo; k < hi; k++) {
+                    tableFreq[selectors[g]][symbols[k]]++;
+                }
+            }
+            // Every table must be able to code every symbol of the block
+            for (int t = 0; t < tables; t++) {
+                for (int c = 0; c < alphabet; c++) {
+                    if (freq[c] > 0) {
+                        tableFreq[t][c]++;
+                    }
+                }
+                lengths[t] = lengths(tableFreq[t]);
+            }
+        }
+        for (int g = 0; g < groups; g++) {
+            selectors[g] = cheapest(symbols, g*GROUP, Math.min(count, g*GROUP+GROUP), lengths);
+        }
+
+        out.write(count, 32);
+        out.write(tables, SELECTOR_BITS);
+        int[][] codes = new int[tables][];
+        for (int t = 0; t < tables; t++) {
+            for (int c = 0; c < alphabet; c++) {
+                out.write(lengths[t][c], LENGTH_BITS);
+            }
+            codes[t] = codes(lengths[t]);
+        }
+        for (int g = 0; g < groups; g++) {
+            out.write(selectors[g], SELECTOR_BITS);
+        }
+        for (int k = 0; k < count; k++) {
+            int t = selectors[k/GROUP];
+            out.write(codes[t][symbols[k]], lengths[t][symbols[k]]);
+        }
+    }
+
+    // read symbols written by encode
+    static char[] decode(BitReader in, int alphabet) {
+        int count = in.read(32);
+        int tables = in.read(SELECTOR_BITS);
+        if (count < 0 || tables < 1 || tables > MAX_TABLES) {
+            throw new IllegalArgumentException("Corrupted Huffman header.");
+        }
+        Decoder[] decoders = new Decoder[tables];
+        for (int t = 0; t < tables; t++) {
+            int[] lengths = new int[alphabet];
+            for (int c = 0; c < alphabet; c++) {
+                lengths[c] = in.read(LENGTH_BITS);
+            }
+            decoders[t] = new Decoder(lengths);
+        }
+        int[] selectors = new int[(count+GROUP-1)/GROUP];
+        for (int g = 0; g < selectors.length; g++) {
+            selectors[g] = in.read(SELECTOR_BITS);
+            if (selectors[g] >= tables) {
+                throw new IllegalArgumentException("Corrupted Huffman selector.");
+            }
+        }
+        char[] symbols = new char[count];
+        for (int k = 0; k < count; k++) {
+            symbols[k] = decoders[selectors[k/GROUP]].read(in);
+        }
+        return symbols;
+    }
+
+    // number of tables worth their header for count symbols (bzip2's thresholds)
+    private static int tables(int count) {
+        if (count < 200) {
+            return 2;
+        } else if (count < 600) {
+            return 3;
+        } else if (count < 1200) {
+            return 4;
+        } else if (count < 2400) {
+            return 5;
+        }
+        return MAX_TABLES;
+    }
+
+    // table coding symbols[lo..hi-1] with the fewest bits
+    private static int cheapest(char[] symbols, int lo, int hi, int[][] lengths) {
+        int best = 0;
+        long bestCost = Long.MAX_VALUE;
+        for (int t = 0; t < lengths.length; t++) {
+            long cost = 0;
+            for (int k = lo; k < hi; k++) {
+                cost += lengths[t][symbols[k]];
+            }
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    // Huffman code lengths for freq[], at most MAX_LENGTH: while the tree is too deep,
+    // the frequencies are halved (keeping them positive) and the tree is rebuilt
+    static int[] lengths(int[] freq) {
+        int alphabet = freq.length;
+        long[] weight = new long[alphabet];
+        for (int c = 0; c < alphabet; c++) {
+            weight[c] = freq[c];
+        }
+        while (true) {
+            int[] lengths = new int[alphabet];
+            int[] parent = new int[2*alphabet];
+            // Nodes are packed as weight << 16 | id, so that ties break the same way everywhere
+            PriorityQueue<Long> pq = new PriorityQueue<Long>();
+            for (int c = 0; c < alphabet; c++) {
+                if (weight[c] > 0) {
+                    pq.add(weight[c] << 16 | c);
+                }
+            }
+            if (pq.size() == 1) {
+                lengths[(int) (pq.poll() & 0xffff)] = 1;
+                return lengths;
+            }
+            int next = alphabet;
+            while (pq.size() > 1) {
+                long a = pq.poll(), b = pq.poll();
+                parent[(int) (a & 0xffff)] = next;
+                parent[(int) (b & 0xffff)] = next;
+                pq.add(((a >>> 16)+(b >>> 16)) << 16 | next);
+                next++;
+            }
+            int root = next-1, max = 0;
+            for (int c = 0; c < alphabet; c++) {
+                if (weight[c] > 0) {
+                    for (int node = c; node != root; node = parent[node]) {
+                        lengths[c]++;
+                    }
+                    max = Math.max(max, lengths[c]);
+                }
+            }
+            if (max <= MAX_LENGTH) {
+                return lengths;
+            }
+            for (int c = 0; c < alphabet; c++) {
+                if (weight[c] > 0) {
+                    weight[c] = weight[c]/2+1;
+                }
+            }
+        }
+    }
+
+    // canonical codes: by increasing length, then by increasing symbol
+    static int[] codes(int[] lengths) {
+        int[] codes = new int[lengths.length];
+        int code = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            for (int c = 0; c < lengths.length; c++) {
+                if (lengths[c] == len) {
+                    codes[c] = code++;
+                }
+            }
+            code <<= 1;
+        }
+        return codes;
+    }
+
+    // canonical decoding: the codes of each length are consecutive, starting at first[len]
+    private static class Decoder {
+        private final int[] first = new int[MAX_LENGTH+2];
+        private final int[] count = new int[MAX_LENGTH+2];
+        private final int[] offset = new int[MAX_LENGTH+2];
+        private final char[] sorted;
+
+        Decoder(int[] lengths) {
+            int n = 0;
+            for (int c = 0; c < lengths.length; c++) {
+                if (lengths[c] > MAX_LENGTH) {
+                    throw new IllegalArgumentException("Corrupted Huffman code length.");
+                } else if (lengths[c] > 0) {
+                    count[lengths[c]]++;
+                    n++;
+                }
+            }
+            this.sorted = new char[n];
+            int code = 0, k = 0;
+            for (int len = 1; len <= MAX_LENGTH; len++) {
+                first[len] = code;
+                offset[len] = k;
+                for (int c = 0; c < lengths.length; c++) {
+                    if (lengths[c] == len) {
+                        sorted[k++] = (char) c;
+                    }
+                }
+                code = (code+count[len]) << 1;
+            }
+        }
+
+        char read(BitReader in) {
+            int code = 0;
+            for (int len = 1; len <= MAX_LENGTH; len++) {
+                code = code << 1 | in.read(1);
+                if (code-first[len] < count[len]) {
+                    return sorted[offset[len]+code-first[len]];
+                }
+            }
+            throw new IllegalArgumentException("Invalid Huffman code.");
+        }
+    }
+
+    // bits written most significant first into a growing byte array
+    static class BitWriter {
+        private byte[] bytes = new byte[1024];
+        private int size;
+        private long buffer;
+        private int bits;
+
+        void write(int value, int n) {
+            if (n == 0) {
+                return;
+            }
+            buffer = buffer << n | (value & (-1L >>> (64-n)));
+            bits += n;
+            while (bits >= 8) {
+                bits -= 8;
+                if (size == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, 2*size);
+                }
+                bytes[size++] = (byte) (buffer >>> bits);
+            }
+        }
+
+        // the bytes written so far, the last one padded with zeros
+        byte[] toByteArray() {
+            byte[] result = Arrays.copyOf(bytes, size+(bits > 0 ? 1 : 0));
+            if (bits > 0) {
+                result[size] = (byte) (buffer << (8-bits));
+            }
+            return result;
+        }
+    }
+
+    // bits read most significant first from bytes[off..end-1]
+    static class BitReader {
+        private final byte[] bytes;
+        private final int end;
+        private int pos;
+        private long buffer;
+        private int bits;
+
+        BitReader(byte[] bytes, int off, int end) {
+            this.bytes = bytes;
+            this.pos = off;
+            this.end = end;
+        }
+
+        int read(int n) {
+            while (bits < n) {
+                if (pos == end) {
+                    throw new IllegalArgumentException("Truncated bit stream.");
+                }
+                buffer = buffer << 8 | (bytes[pos++] & 0xff);
+                bits += 8;
+            }
+            bits -= n;
+            return (int) ((buffer >>> bits) & (-1L >>> (64-n)));
+        }
+    }
+}
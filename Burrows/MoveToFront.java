@@ -1,59 +1,297 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class MoveToFront {
     private static final int R = 256;
+    // digits of the zero run lengths
+    static final char RUNA = 0;
+    static final char RUNB = 1;
+    // symbols of encodeRuns: RUNA, RUNB and the non-zero indices shifted by one
+    static final int RUN_ALPHABET = R+1;
+    private static final int SYMBOL_BITS = 9;
     
     // apply move-to-front encoding, reading from standard input and writing to standard output
     public static void encode() {
-        char[] sequence = new char[R];
-        for (char i = 0; i < R; i++) {
-            sequence[i] = i;
-        }
-        
-        char c, i, tmp1, tmp2;
+        Recency recency = new Recency();
         while (!BinaryStdIn.isEmpty()) {
-            c = BinaryStdIn.readChar();
-            // Shifting in 1 pass
-            for (i = 0, tmp2 = sequence[0]; c != sequence[i]; i++) {
-                tmp1 = sequence[i];
-                sequence[i] = tmp2;
-                tmp2 = tmp1;
-            }
-            sequence[i] = tmp2;
-            sequence[0] = c;
-            BinaryStdOut.write(i);
+            BinaryStdOut.write(recency.toFront(BinaryStdIn.readChar()));
         }
         BinaryStdOut.flush();
     }
 
     // apply move-to-front decoding, reading from standard input and writing to standard output
     public static void decode() {
+        char[] sequence = newSequence();
+        while (!BinaryStdIn.isEmpty()) {
+            BinaryStdOut.write(fromFront(sequence, BinaryStdIn.readChar()));
+        }
+        BinaryStdOut.flush();
+    }
+
+    // apply move-to-front encoding to src
+    public static byte[] encode(byte[] src) {
+        byte[] dst = new byte[src.length];
+        encode(src, 0, src.length, dst, 0);
+        return dst;
+    }
+
+    // apply move-to-front decoding to src
+    public static byte[] decode(byte[] src) {
+        byte[] dst = new byte[src.length];
+        decode(src, 0, src.length, dst, 0);
+        return dst;
+    }
+
+    // apply move-to-front encoding to the remaining bytes of src, writing to dst
+    public static void encode(ByteBuffer src, ByteBuffer dst) {
+        transform(src, dst, true);
+    }
+
+    // apply move-to-front decoding to the remaining bytes of src, writing to dst
+    public static void decode(ByteBuffer src, ByteBuffer dst) {
+        transform(src, dst, false);
+    }
+
+    // heap buffers go through their backing arrays, other buffers through absolute get/put
+    private static void transform(ByteBuffer src, ByteBuffer dst, boolean encode) {
+        int n = src.remaining();
+        if (dst.remaining() < n) {
+            throw new BufferOverflowException();
+        }
+        int srcPos = src.position(), dstPos = dst.position();
+        if (src.hasArray() && dst.hasArray()) {
+            if (encode) {
+                encode(src.array(), src.arrayOffset()+srcPos, n, dst.array(), dst.arrayOffset()+dstPos);
+            } else {
+                decode(src.array(), src.arrayOffset()+srcPos, n, dst.array(), dst.arrayOffset()+dstPos);
+            }
+        } else {
+            Recency recency = encode ? new Recency() : null;
+            char[] sequence = encode ? null : newSequence();
+            for (int k = 0; k < n; k++) {
+                char c = (char) (src.get(srcPos+k) & 0xff);
+                dst.put(dstPos+k, (byte) (encode ? recency.toFront(c) : fromFront(sequence, c)));
+            }
+        }
+        src.position(srcPos+n);
+        dst.position(dstPos+n);
+    }
+
+    // apply move-to-front encoding to src[srcOff..srcOff+n-1], writing to dst[dstOff..dstOff+n-1]
+    static void encode(byte[] src, int srcOff, int n, byte[] dst, int dstOff) {
+        Recency recency = new Recency();
+        for (int k = 0; k < n; k++) {
+            dst[dstOff+k] = (byte) recency.toFront(src[srcOff+k] & 0xff);
+        }
+    }
+
+    // apply move-to-front decoding to src[srcOff..srcOff+n-1], writing to dst[dstOff..dstOff+n-1]
+    static void decode(byte[] src, int srcOff, int n, byte[] dst, int dstOff) {
+        char[] sequence = newSequence();
+        for (int k = 0; k < n; k++) {
+            dst[dstOff+k] = (byte) fromFront(sequence, (char) (src[srcOff+k] & 0xff));
+        }
+    }
+
+    // apply move-to-front encoding to src, then replace each run of zeros by its length
+    // written in bijective base 2 with the digits RUNA and RUNB (as in bzip2);
+    // the other indices i are shifted to i+1, so symbols are in 0..RUN_ALPHABET-1
+    public static char[] encodeRuns(byte[] src) {
+        byte[] mtf = encode(src);
+        char[] symbols = new char[mtf.length];
+        return Arrays.copyOf(symbols, encodeRuns(mtf, 0, mtf.length, symbols));
+    }
+
+    // reverse encodeRuns
+    public static byte[] decodeRuns(char[] symbols) {
+        byte[] mtf = new byte[decodeRuns(symbols, 0, symbols.length, null, 0)];
+        decodeRuns(symbols, 0, symbols.length, mtf, 0);
+        return decode(mtf);
+    }
+
+    // run-length encode the zeros of the move-to-front output mtf[off..off+n-1] into symbols[];
+    // returns the number of symbols, which is at most n
+    static int encodeRuns(byte[] mtf, int off, int n, char[] symbols) {
+        int count = 0, run = 0;
+        for (int k = 0; k <= n; k++) {
+            int i = k < n ? mtf[off+k] & 0xff : -1;
+            if (i == 0) {
+                run++;
+                continue;
+            }
+            // Bijective base 2, least significant digit first
+            while (run > 0) {
+                if ((run & 1) == 1) {
+                    symbols[count++] = RUNA;
+                    run = (run-1)/2;
+                } else {
+                    symbols[count++] = RUNB;
+                    run = (run-2)/2;
+                }
+            }
+            if (i > 0) {
+                symbols[count++] = (char) (i+1);
+            }
+        }
+        return count;
+    }
+
+    // expand symbols[off..off+count-1] into mtf[mtfOff..] (or only count the bytes if mtf is null);
+    // returns the number of bytes
+    static int decodeRuns(char[] symbols, int off, int count, byte[] mtf, int mtfOff) {
+        int n = 0, run = 0, weight = 1;
+        for (int k = 0; k <= count; k++) {
+            char symbol = k < count ? symbols[off+k] : R+1;
+            if (symbol == RUNA || symbol == RUNB) {
+                run += symbol == RUNA ? weight : 2*weight;
+                weight <<= 1;
+                continue;
+            }
+            if (mtf != null) {
+                Arrays.fill(mtf, mtfOff+n, mtfOff+n+run, (byte) 0);
+            }
+            n += run;
+            run = 0;
+            weight = 1;
+            if (k < count) {
+                if (symbol >= RUN_ALPHABET) {
+                    throw new IllegalArgumentException("Invalid symbol: "+(int) symbol+".");
+                }
+                if (mtf != null) {
+                    mtf[mtfOff+n] = (byte) (symbol-1);
+                }
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // the initial sequence 0..R-1
+    private static char[] newSequence() {
         char[] sequence = new char[R];
         for (char i = 0; i < R; i++) {
             sequence[i] = i;
         }
-        
-        char i, c;
-        while (!BinaryStdIn.isEmpty()) {
-            i = BinaryStdIn.readChar();
-            c = sequence[i];
-            // Shifting in 1 pass
-            while (i > 0) {
-                sequence[i] = sequence[--i];
+        return sequence;
+    }
+
+    // move the char at position i to the front of the sequence and return it
+    private static char fromFront(char[] sequence, char i) {
+        char c = sequence[i];
+        System.arraycopy(sequence, 0, sequence, 1, i);
+        sequence[0] = c;
+        return c;
+    }
+
+    // Positions of the chars in the move-to-front sequence, for encoding: each char holds the
+    // time it was last moved to the front, and its position is the number of chars moved
+    // since, counted in a Fenwick tree over the times in use. A char costs O(log T)
+    // instead of a shift linear in its position; the times are renumbered every T-R chars.
+    private static class Recency {
+        private static final int T = 1 << 12;
+        private final int[] time = new int[R];     // last time of each char
+        private final int[] owner = new int[T];    // char of each time in use, or -1
+        private final int[] tree = new int[T+1];   // Fenwick tree of the times in use
+        private int now;
+
+        Recency() {
+            Arrays.fill(owner, -1);
+            // Char 0 is at the front of the initial sequence, so it was moved last
+            for (int c = R-1; c >= 0; c--) {
+                use(c, now++);
+            }
+        }
+
+        // move c to the front of the sequence and return its previous position
+        char toFront(int c) {
+            int t = time[c], i = R;
+            // Minus the times in use up to t, c included
+            for (int k = t+1; k > 0; k -= k & -k) {
+                i -= tree[k];
+            }
+            if (now == T) {
+                renumber();
+                t = time[c];
+            }
+            owner[t] = -1;
+            add(t, -1);
+            use(c, now++);
+            return (char) i;
+        }
+
+        private void use(int c, int t) {
+            time[c] = t;
+            owner[t] = c;
+            add(t, 1);
+        }
+
+        private void add(int t, int delta) {
+            for (int k = t+1; k <= T; k += k & -k) {
+                tree[k] += delta;
+            }
+        }
+
+        // give the chars the times 0..R-1, in the same order
+        private void renumber() {
+            int[] order = new int[R];
+            for (int t = 0, k = 0; t < T; t++) {
+                if (owner[t] >= 0) {
+                    order[k++] = owner[t];
+                }
+            }
+            Arrays.fill(owner, -1);
+            Arrays.fill(tree, 0);
+            for (now = 0; now < R; now++) {
+                use(order[now], now);
             }
-            sequence[0] = c;
-            BinaryStdOut.write(c);
         }
-        BinaryStdOut.flush();
+    }
+
+    // read symbols of encodeRuns: their count, then 9 bits per symbol
+    private static char[] readSymbols() {
+        char[] symbols = new char[BinaryStdIn.readInt()];
+        for (int k = 0; k < symbols.length; k++) {
+            symbols[k] = BinaryStdIn.readChar(SYMBOL_BITS);
+        }
+        return symbols;
+    }
+
+    private static void writeSymbols(char[] symbols) {
+        BinaryStdOut.write(symbols.length);
+        for (char symbol : symbols) {
+            BinaryStdOut.write(symbol, SYMBOL_BITS);
+        }
+    }
+
+    private static byte[] readBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while (!BinaryStdIn.isEmpty()) {
+            bytes.write(BinaryStdIn.readChar());
+        }
+        return bytes.toByteArray();
     }
 
     // if args[0] is '-', apply move-to-front encoding
     // if args[0] is '+', apply move-to-front decoding
+    // if args[0] is '-z', apply move-to-front then zero run-length encoding
+    // if args[0] is '+z', apply zero run-length then move-to-front decoding
     public static void main(String[] args) {
         if (args[0].equals("-")) {
             MoveToFront.encode();
         } else if (args[0].equals("+")) {
             MoveToFront.decode();
+        } else if (args[0].equals("-z")) {
+            writeSymbols(encodeRuns(readBytes()));
+            BinaryStdOut.flush();
+        } else if (args[0].equals("+z")) {
+            for (byte b : decodeRuns(readSymbols())) {
+                BinaryStdOut.write(b);
+            }
+            BinaryStdOut.flush();
         } else {
             throw new IllegalArgumentException();
         }
     }
-}
\ No newline at end of file
+}
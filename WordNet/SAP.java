@@ -1,10 +1,19 @@
+import java.util.Arrays;
+import java.util.function.Supplier;
+
 /**
  *  @author Nicolas Trinquier
  */
 
 public class SAP {
     private static final int INFINITY = Integer.MAX_VALUE;
-    private Digraph G;
+    // copy of the digraph, the vertices adjacent to v being adj[first[v]..first[v+1]-1]
+    private final int V;
+    private final int[] first;
+    private final int[] adj;
+    // scratch state of each thread, so that queries can run concurrently; it does not
+    // refer to the SAP, so that the threads do not keep a discarded SAP reachable
+    private final ThreadLocal<Scratch> scratch;
 
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(Digraph G) {
@@ -12,69 +21,53 @@ public class SAP {
         if (G == null) {
             throw new NullPointerException("Digraph G should not be null.");
         }
-        this.G = new Digraph(G);
-    }
-
-    // length of shortest ancestral path between v and w; -1 if no such path
-    public int length(int v, int w) {
-        // check arguments
-        if (v < 0 || v > G.V()-1) {
-            throw new IndexOutOfBoundsException("Vertice v should be between 0 and "+(G.V()-1)+" (v="+v+").");
-        } else if (w < 0 || w > G.V()-1) {
-            throw new IndexOutOfBoundsException("Vertice w should be between 0 and "+(G.V()-1)+" (w="+w+").");
+        this.V = G.V();
+        this.first = new int[this.V+1];
+        int edges = 0;
+        for (int v = 0; v < this.V; v++) {
+            for (int w : G.adj(v)) {
+                edges++;
+            }
         }
-
-        BreadthFirstDirectedPaths bfsv = new BreadthFirstDirectedPaths(this.G, v);
-        BreadthFirstDirectedPaths bfsw = new BreadthFirstDirectedPaths(this.G, w);
-        int minDist = INFINITY;
-        boolean found = false;
-
-        for (int i = 0; i < this.G.V(); i++) {
-            if (bfsv.hasPathTo(i) && bfsw.hasPathTo(i)) {
-                int dist = bfsv.distTo(i)+bfsw.distTo(i); 
-                if (dist < minDist) {
-                    minDist = dist;
-                    found = true;
-                }
+        this.adj = new int[edges];
+        for (int v = 0, e = 0; v < this.V; v++) {
+            this.first[v] = e;
+            for (int w : G.adj(v)) {
+                this.adj[e++] = w;
             }
         }
+        this.first[this.V] = edges;
+        final int vertices = this.V;
+        this.scratch = ThreadLocal.withInitial(new Supplier<Scratch>() {
+            public Scratch get() {
+                return new Scratch(vertices);
+            }
+        });
+    }
 
-        if (found) {
-            return minDist;
-        } else {
-            return -1;
-        }
+    // length of shortest ancestral path between v and w; -1 if no such path
+    public int length(int v, int w) {
+        return search(v, w).length;
     }
 
     // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
     public int ancestor(int v, int w) {
-        // check arguments
-        if (v < 0 || v > G.V()-1) {
-            throw new IndexOutOfBoundsException("Vertice v should be between 0 and "+(G.V()-1)+" (v="+v+").");
-        } else if (w < 0 || w > G.V()-1) {
-            throw new IndexOutOfBoundsException("Vertice w should be between 0 and "+(G.V()-1)+" (w="+w+").");
-        }
-
-        BreadthFirstDirectedPaths bfsv = new BreadthFirstDirectedPaths(this.G, v);
-        BreadthFirstDirectedPaths bfsw = new BreadthFirstDirectedPaths(this.G, w);
-        int minDist = INFINITY;
-        int ancestor = -1;
-
-        for (int i = 0; i < this.G.V(); i++) {
-            if (bfsv.hasPathTo(i) && bfsw.hasPathTo(i)) {
-                int dist = bfsv.distTo(i)+bfsw.distTo(i); 
-                if (dist < minDist) {
-                    minDist = dist;
-                    ancestor = i;
-                }
-            }
-        }
-
-        return ancestor;
+        return search(v, w).ancestor;
     }
 
     // length of shortest ancestral path between any vertex in v and any vertex in w; -1 if no such path
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
+        return search(v, w).length;
+    }
+
+    // a common ancestor that participates in shortest ancestral path; -1 if no such path
+    public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+        return search(v, w).ancestor;
+    }
+
+    // { length, ancestor } of a shortest ancestral path between any vertex in v and any vertex in w,
+    // from a single search and without boxing the vertices; { -1, -1 } if no such path
+    int[] lengthAndAncestor(int[] v, int[] w) {
         // check arguments
         if (v == null) {
             throw new NullPointerException("v should not be null.");
@@ -82,30 +75,31 @@ public class SAP {
             throw new NullPointerException("w should not be null.");
         }
 
-        BreadthFirstDirectedPaths bfsv = new BreadthFirstDirectedPaths(this.G, v);
-        BreadthFirstDirectedPaths bfsw = new BreadthFirstDirectedPaths(this.G, w);
-        int minDist = INFINITY;
-        boolean found = false;
-
-        for (int i = 0; i < this.G.V(); i++) {
-            if (bfsv.hasPathTo(i) && bfsw.hasPathTo(i)) {
-                int dist = bfsv.distTo(i)+bfsw.distTo(i); 
-                if (dist < minDist) {
-                    minDist = dist;
-                    found = true;
-                }
-            }
-        }
+        Scratch scratch = this.scratch.get();
+        scratch.clear();
+        addSources(scratch, 0, v, "v");
+        addSources(scratch, 1, w, "w");
+        scratch.search(this.first, this.adj);
+        return new int[] { scratch.length, scratch.ancestor };
+    }
 
-        if (found) {
-            return minDist;
-        } else {
-            return -1;
+    private Scratch search(int v, int w) {
+        // check arguments
+        if (v < 0 || v > V-1) {
+            throw new IndexOutOfBoundsException("Vertice v should be between 0 and "+(V-1)+" (v="+v+").");
+        } else if (w < 0 || w > V-1) {
+            throw new IndexOutOfBoundsException("Vertice w should be between 0 and "+(V-1)+" (w="+w+").");
         }
+
+        Scratch scratch = this.scratch.get();
+        scratch.clear();
+        scratch.add(0, v);
+        scratch.add(1, w);
+        scratch.search(this.first, this.adj);
+        return scratch;
     }
 
-    // a common ancestor that participates in shortest ancestral path; -1 if no such path
-    public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+    private Scratch search(Iterable<Integer> v, Iterable<Integer> w) {
         // check arguments
         if (v == null) {
             throw new NullPointerException("v should not be null.");
@@ -113,22 +107,162 @@ public class SAP {
             throw new NullPointerException("w should not be null.");
         }
 
-        BreadthFirstDirectedPaths bfsv = new BreadthFirstDirectedPaths(this.G, v);
-        BreadthFirstDirectedPaths bfsw = new BreadthFirstDirectedPaths(this.G, w);
-        int minDist = INFINITY;
-        int ancestor = -1;
-
-        for (int i = 0; i < this.G.V(); i++) {
-            if (bfsv.hasPathTo(i) && bfsw.hasPathTo(i)) {
-                int dist = bfsv.distTo(i)+bfsw.distTo(i); 
-                if (dist < minDist) {
-                    minDist = dist;
-                    ancestor = i;
+        Scratch scratch = this.scratch.get();
+        scratch.clear();
+        addSources(scratch, 0, v, "v");
+        addSources(scratch, 1, w, "w");
+        scratch.search(this.first, this.adj);
+        return scratch;
+    }
+
+    // add the vertices of v, checked to be in the digraph, to the sources of side
+    private void addSources(Scratch scratch, int side, Iterable<Integer> v, String name) {
+        for (int s : v) {
+            if (s < 0 || s > V-1) {
+                throw new IndexOutOfBoundsException("Vertices of "+name+" should be between 0 and "+(V-1)+" ("+name+" contains "+s+").");
+            }
+            scratch.add(side, s);
+        }
+    }
+
+    private void addSources(Scratch scratch, int side, int[] v, String name) {
+        for (int s : v) {
+            if (s < 0 || s > V-1) {
+                throw new IndexOutOfBoundsException("Vertices of "+name+" should be between 0 and "+(V-1)+" ("+name+" contains "+s+").");
+            }
+            scratch.add(side, s);
+        }
+    }
+
+    // scratch state of the searches of a thread, reused across its queries. The distances from each side
+    // are only valid for the vertices stamped with the current generation, so that they
+    // never need to be cleared and a query only touches the vertices it visits.
+    // The last query is kept with its result, so that length() then ancestor() on the
+    // same vertices only search once.
+    private static class Scratch {
+        private final int[][] dist;
+        private final int[][] stamp;
+        private final int[][] queue;
+        private final int[] head = new int[2], tail = new int[2], level = new int[2];
+        private int generation;
+        // sources of the query, and of the last query searched
+        private int[][] sources = { new int[8], new int[8] };
+        private final int[] n = new int[2];
+        private int[][] last = { new int[8], new int[8] };
+        private final int[] lastN = { -1, -1 };
+        // result of the last query
+        int length;
+        int ancestor;
+
+        Scratch(int V) {
+            this.dist = new int[2][V];
+            this.stamp = new int[2][V];
+            this.queue = new int[2][V];
+        }
+
+        void clear() {
+            this.n[0] = 0;
+            this.n[1] = 0;
+        }
+
+        void add(int side, int s) {
+            if (this.n[side] == this.sources[side].length) {
+                this.sources[side] = Arrays.copyOf(this.sources[side], 2*this.n[side]);
+            }
+            this.sources[side][this.n[side]++] = s;
+        }
+
+        // length of the shortest ancestral path in the digraph (first, adj) between the
+        // sources of both sides, and a common ancestor on it (-1 if there is none), by a
+        // breadth-first search from each side in lockstep: a side stops once its next
+        // level cannot be closer than the best ancestor found so far
+        void search(int[] first, int[] adj) {
+            if (sameAsLast()) {
+                return;
+            }
+            if (++this.generation == 0) {
+                Arrays.fill(this.stamp[0], 0);
+                Arrays.fill(this.stamp[1], 0);
+                this.generation = 1;
+            }
+            int[] head = this.head, tail = this.tail, level = this.level;
+            Arrays.fill(head, 0);
+            Arrays.fill(tail, 0);
+            Arrays.fill(level, 0);
+            int minDist = INFINITY, ancestor = -1;
+            for (int side = 0; side < 2; side++) {
+                for (int k = 0; k < this.n[side]; k++) {
+                    int s = this.sources[side][k];
+                    if (distTo(side, s) < 0) {
+                        this.stamp[side][s] = this.generation;
+                        this.dist[side][s] = 0;
+                        this.queue[side][tail[side]++] = s;
+                        if (distTo(1-side, s) == 0) {
+                            minDist = 0;
+                            ancestor = s;
+                        }
+                    }
                 }
             }
+
+            while (true) {
+                // Expand the next level of the side that is the least deep
+                boolean activeV = head[0] < tail[0] && level[0]+1 < minDist;
+                boolean activeW = head[1] < tail[1] && level[1]+1 < minDist;
+                if (!activeV && !activeW) {
+                    break;
+                }
+                int side = !activeW || (activeV && level[0] <= level[1]) ? 0 : 1;
+                int[] q = this.queue[side], d = this.dist[side], mark = this.stamp[side];
+                int end = tail[side];
+                while (head[side] < end) {
+                    int x = q[head[side]++];
+                    for (int e = first[x]; e < first[x+1]; e++) {
+                        int y = adj[e];
+                        if (mark[y] != this.generation) {
+                            mark[y] = this.generation;
+                            d[y] = d[x]+1;
+                            q[tail[side]++] = y;
+                            int other = distTo(1-side, y);
+                            if (other >= 0 && d[y]+other < minDist) {
+                                minDist = d[y]+other;
+                                ancestor = y;
+                            }
+                        }
+                    }
+                }
+                level[side]++;
+            }
+
+            this.length = ancestor < 0 ? -1 : minDist;
+            this.ancestor = ancestor;
+            for (int side = 0; side < 2; side++) {
+                if (this.last[side].length < this.n[side]) {
+                    this.last[side] = new int[this.sources[side].length];
+                }
+                System.arraycopy(this.sources[side], 0, this.last[side], 0, this.n[side]);
+                this.lastN[side] = this.n[side];
+            }
+        }
+
+        // distance from the sources of side to x, or -1 if x was not reached
+        private int distTo(int side, int x) {
+            return this.stamp[side][x] == this.generation ? this.dist[side][x] : -1;
         }
 
-        return ancestor;
+        private boolean sameAsLast() {
+            for (int side = 0; side < 2; side++) {
+                if (this.n[side] != this.lastN[side]) {
+                    return false;
+                }
+                for (int k = 0; k < this.n[side]; k++) {
+                    if (this.sources[side][k] != this.last[side][k]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
     }
 
     // do unit testing of this class
@@ -144,4 +278,4 @@ public class SAP {
             StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,32 +1,64 @@
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  *  @author Nicolas Trinquier
  */
 
+// Queries can run concurrently once constructed. The shortest ancestral paths of the
+// most recently used pairs of nouns are cached, keyed by their sets of synsets; the cache
+// is split in stripes locked separately, so that concurrent queries rarely wait.
 public class WordNet {
-    private Hashtable<Integer, String> idToSynset;
-    private Hashtable<String, HashSet<Integer>> nounToIds;
-    private HashSet<String> nouns;
-    private Digraph digraph;
-    private DirectedCycle dc;
-    private SAP sap;
+    private static final int DEFAULT_CACHE_SIZE = 1 << 16;
+    private static final int STRIPES = 16;
+    private static final int PAIRS_PER_TASK = 64;
+    // only read once constructed, so that queries need no locking
+    private final HashMap<Integer, String> idToSynset = new HashMap<Integer, String>();
+    private final HashMap<String, int[]> nounToIds = new HashMap<String, int[]>(); // sorted synset ids
+    private final HashSet<String> nouns = new HashSet<String>();
+    private final Digraph digraph;
+    private final SAP sap;
+    // { length, ancestor } of the pairs of synset sets of each stripe, in access order,
+    // the least recently used ones being dropped
+    private final LinkedHashMap<Pair, int[]>[] cache;
 
     // constructor takes the name of the two input files
     public WordNet(String synsets, String hypernyms) {
+        this(synsets, hypernyms, DEFAULT_CACHE_SIZE);
+    }
+
+    // constructor takes the name of the two input files, and the number of pairs of nouns to cache
+    public WordNet(String synsets, String hypernyms, final int cacheSize) {
         // check arguments
         if (synsets == null) {
             throw new NullPointerException("synsets should not be null.");
         } else if (hypernyms == null) {
             throw new NullPointerException("hypernyms should not be null.");
+        } else if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize should not be negative (cacheSize="+cacheSize+").");
+        }
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        LinkedHashMap<Pair, int[]>[] cache = new LinkedHashMap[STRIPES];
+        final int stripeSize = (cacheSize+STRIPES-1)/STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            cache[i] = new LinkedHashMap<Pair, int[]>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Pair, int[]> eldest) {
+                    return size() > stripeSize;
+                }
+            };
         }
+        this.cache = cache;
         // build hashtables and digraph from input
         int numberOfSynsets = this.readSynsets(synsets);
-        this.readHypernyms(hypernyms, numberOfSynsets);
+        this.digraph = this.readHypernyms(hypernyms, numberOfSynsets);
         // check if DAG
-        this.dc = new DirectedCycle(this.digraph);
-        if (this.dc.hasCycle()) {
+        if (new DirectedCycle(this.digraph).hasCycle()) {
             throw new IllegalArgumentException("The digraph should not have a cycle.");
         }
         // check if rooted
@@ -74,9 +106,27 @@ public class WordNet {
             throw new IllegalArgumentException("nounB ("+nounB+") should be a WordNet noun.");
         }
 
-        HashSet<Integer> idsA = this.nounToIds.get(nounA);
-        HashSet<Integer> idsB = this.nounToIds.get(nounB);
-        return this.sap.length(idsA, idsB);
+        return this.query(nounA, nounB)[0];
+    }
+
+    // distances between the nouns of each pair { nounA, nounB }, computed in parallel
+    // on the common fork/join pool
+    public int[] distances(List<String[]> pairs) {
+        // check arguments
+        if (pairs == null) {
+            throw new NullPointerException("pairs should not be null.");
+        }
+        for (String[] pair : pairs) {
+            if (pair == null || pair.length != 2) {
+                throw new IllegalArgumentException("Each pair should be an array of two nouns.");
+            }
+        }
+
+        int[] distances = new int[pairs.size()];
+        if (!pairs.isEmpty()) {
+            ForkJoinPool.commonPool().invoke(new Distances(pairs, 0, pairs.size(), distances));
+        }
+        return distances;
     }
 
     // a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
@@ -93,17 +143,107 @@ public class WordNet {
             throw new IllegalArgumentException("nounB ("+nounB+") should be a WordNet noun.");
         }
         
-        HashSet<Integer> idsA = this.nounToIds.get(nounA);
-        HashSet<Integer> idsB = this.nounToIds.get(nounB);
-        int idAncestor = this.sap.ancestor(idsA, idsB);
+        int idAncestor = this.query(nounA, nounB)[1];
         return this.idToSynset.get(idAncestor);
     }
 
+    // { length, ancestor } of the shortest ancestral path between two nouns, from the cache
+    private int[] query(String nounA, String nounB) {
+        int[] idsA = this.nounToIds.get(nounA);
+        int[] idsB = this.nounToIds.get(nounB);
+        Pair key = new Pair(idsA, idsB);
+        LinkedHashMap<Pair, int[]> stripe = this.cache[(key.hash ^ (key.hash >>> 16)) & (STRIPES-1)];
+        int[] result;
+        synchronized (stripe) {
+            result = stripe.get(key);
+        }
+        if (result == null) {
+            result = this.sap.lengthAndAncestor(idsA, idsB);
+            synchronized (stripe) {
+                stripe.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private static int[] sorted(HashSet<Integer> ids) {
+        int[] a = new int[ids.size()];
+        int k = 0;
+        for (int id : ids) {
+            a[k++] = id;
+        }
+        Arrays.sort(a);
+        return a;
+    }
+
+    // unordered pair of sets of synsets, each one as a sorted array
+    private static class Pair {
+        private final int[] a;
+        private final int[] b;
+        private final int hash;
+
+        Pair(int[] x, int[] y) {
+            if (compare(x, y) > 0) {
+                int[] tmp = x;
+                x = y;
+                y = tmp;
+            }
+            this.a = x;
+            this.b = y;
+            this.hash = 31*Arrays.hashCode(x)+Arrays.hashCode(y);
+        }
+
+        private static int compare(int[] x, int[] y) {
+            for (int k = 0; k < x.length && k < y.length; k++) {
+                if (x[k] != y[k]) {
+                    return x[k] < y[k] ? -1 : 1;
+                }
+            }
+            return x.length-y.length;
+        }
+
+        public int hashCode() {
+            return this.hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair that = (Pair) o;
+            return this.hash == that.hash && Arrays.equals(this.a, that.a) && Arrays.equals(this.b, that.b);
+        }
+    }
+
+    // distances of the pairs lo..hi-1, split in halves
+    private class Distances extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<String[]> pairs;
+        private final int lo, hi;
+        private final int[] distances;
+
+        Distances(List<String[]> pairs, int lo, int hi, int[] distances) {
+            this.pairs = pairs;
+            this.lo = lo;
+            this.hi = hi;
+            this.distances = distances;
+        }
+
+        protected void compute() {
+            if (hi-lo > PAIRS_PER_TASK) {
+                int mid = (lo+hi) >>> 1;
+                invokeAll(new Distances(pairs, lo, mid, distances), new Distances(pairs, mid, hi, distances));
+                return;
+            }
+            for (int k = lo; k < hi; k++) {
+                distances[k] = distance(pairs.get(k)[0], pairs.get(k)[1]);
+            }
+        }
+    }
+
     // readSynsets: read synsets and preprocess
     private int readSynsets(String synsets) {
-        this.idToSynset = new Hashtable<Integer, String>();
-        this.nounToIds = new Hashtable<String, HashSet<Integer>>();
-        this.nouns = new HashSet<String>();
+        HashMap<String, HashSet<Integer>> ids = new HashMap<String, HashSet<Integer>>();
         int maxID = 0;
         In in = new In(synsets);
         while (in.hasNextLine()) {
@@ -112,28 +252,32 @@ public class WordNet {
             this.idToSynset.put(id, parts[1]);
             
             for (String s : parts[1].split(" ")) {
-                if (!this.nounToIds.containsKey(s)) {
-                    this.nounToIds.put(s, new HashSet<Integer>());
+                if (!ids.containsKey(s)) {
+                    ids.put(s, new HashSet<Integer>());
                 }
-                this.nounToIds.get(s).add(id);
+                ids.get(s).add(id);
                 this.nouns.add(s);
             }
             maxID = Integer.parseInt(parts[0]);
         }
+        for (Map.Entry<String, HashSet<Integer>> entry : ids.entrySet()) {
+            this.nounToIds.put(entry.getKey(), sorted(entry.getValue()));
+        }
 
         return maxID+1;
     }
 
     // readHypernyms: read hypernyms and add edges
-    private void readHypernyms(String hypernyms, int numberOfSynsets) {    
-        this.digraph = new Digraph(numberOfSynsets); // Because IDs start from 0    
+    private Digraph readHypernyms(String hypernyms, int numberOfSynsets) {    
+        Digraph digraph = new Digraph(numberOfSynsets); // Because IDs start from 0    
         In in = new In(hypernyms);
         while (in.hasNextLine()) {
             String[] parts = in.readLine().split(",");
             for (int i = 1; i < parts.length; i++) {
-                this.digraph.addEdge(Integer.parseInt(parts[0]), Integer.parseInt(parts[i]));
+                digraph.addEdge(Integer.parseInt(parts[0]), Integer.parseInt(parts[i]));
             }
         }
+        return digraph;
     }
 
     // do unit testing of this class